@@ -0,0 +1,34 @@
+package me.legrange.haveibeenpwned;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that allocation rates are
+ * reported with throughput and latency percentiles.
+ * <p>
+ * Usage: java -jar target/benchmarks.jar [regex...]
+ *
+ * @author gideon
+ */
+public final class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .addProfiler(GCProfiler.class);
+        if (args.length == 0) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        }
+        for (String arg : args) {
+            options.include(arg);
+        }
+        new Runner(options.build()).run();
+    }
+
+    private BenchmarkRunner() {
+    }
+
+}
@@ -0,0 +1,108 @@
+package me.legrange.haveibeenpwned;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks decoding breaches and pastes, both directly with Gson configured
+ * the way the API configures it, and through the API against a local stub
+ * server.
+ *
+ * @author gideon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonBenchmark {
+
+    private static final Type BREACHES = new TypeToken<List<Breach>>() {
+    }.getType();
+    private static final Type PASTES = new TypeToken<List<Paste>>() {
+    }.getType();
+    private static final Set<BreachField> NAME_AND_DOMAIN = EnumSet.of(BreachField.NAME, BreachField.DOMAIN);
+    private static final Set<String> NAME_AND_DOMAIN_JSON = new HashSet<>(Arrays.asList("Name", "Domain"));
+
+    private final Gson gson = new GsonBuilder().setLenient().create();
+    private String breaches;
+    private String pastes;
+    private StubServer server;
+    private HaveIBeenPwndApi api;
+    private JsonStreamDecoder<Breach> decoder;
+
+    @Setup
+    public void setup() throws IOException {
+        breaches = Payloads.breaches(600);
+        pastes = Payloads.pastes(20);
+        server = new StubServer();
+        api = server.builder().build();
+        decoder = new JsonStreamDecoder<>(gson, Breach.class);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public List<Breach> decodeBreaches() {
+        return gson.fromJson(breaches, BREACHES);
+    }
+
+    @Benchmark
+    public void streamBreaches(Blackhole bh) throws IOException {
+        decoder.decode(new StringReader(breaches), null, bh::consume);
+    }
+
+    @Benchmark
+    public void streamBreachNames(Blackhole bh) throws IOException {
+        decoder.decode(new StringReader(breaches), NAME_AND_DOMAIN_JSON, bh::consume);
+    }
+
+    @Benchmark
+    public List<Paste> decodePastes() {
+        return gson.fromJson(pastes, PASTES);
+    }
+
+    @Benchmark
+    public List<Breach> getAllBreachedSites() throws HaveIBeenPwndException {
+        return api.getAllBreachedSites();
+    }
+
+    @Benchmark
+    public void forEachBreachedSite(Blackhole bh) throws HaveIBeenPwndException {
+        api.forEachBreachedSite(null, NAME_AND_DOMAIN, bh::consume);
+    }
+
+    @Benchmark
+    public List<Breach> getAllBreachesForAccount() throws HaveIBeenPwndException {
+        return api.getAllBreachesForAccount("test@example.com");
+    }
+
+}
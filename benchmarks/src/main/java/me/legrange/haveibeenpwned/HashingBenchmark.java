@@ -0,0 +1,56 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks hashing passwords, as SHA1 and NT hashes, for the Pwned
+ * Passwords API.
+ *
+ * @author gideon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashingBenchmark {
+
+    @Param({"123456", "correct horse battery staple"})
+    public String password;
+
+    private char[] chars;
+
+    @Setup
+    public void setup() {
+        chars = password.toCharArray();
+    }
+
+    @Benchmark
+    public String makeHash() {
+        return HaveIBeenPwndApi.makeHash(password);
+    }
+
+    @Benchmark
+    public byte[] makeBinaryHash() {
+        return HaveIBeenPwndApi.makeBinaryHash(chars);
+    }
+
+    @Benchmark
+    public byte[] makeBinaryNtlmHash() {
+        return HaveIBeenPwndApi.makeBinaryNtlmHash(chars);
+    }
+
+}
@@ -0,0 +1,80 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks password lookups through the API against a local stub server,
+ * with and without padding and a range cache.
+ *
+ * @author gideon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+    private static final String HASH5 = "5BAA6";
+
+    @Param({"false", "true"})
+    public boolean padding;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private StubServer server;
+    private HaveIBeenPwndApi api;
+    private String hit;
+    private String miss;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new StubServer();
+        HaveIBeenPwndBuilder builder = server.builder().addPadding(padding);
+        if (cache) {
+            builder.withRangeCache(new LruRangeCache(16 * 1024 * 1024, Duration.ofHours(1)));
+        }
+        api = builder.build();
+        hit = Payloads.knownHit(HASH5);
+        miss = HASH5 + "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF";
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public List<PwnedHash> searchByRange() throws HaveIBeenPwndException {
+        return api.searchByRange(HASH5);
+    }
+
+    @Benchmark
+    public boolean isHashPasswordPwnedHit() throws HaveIBeenPwndException {
+        return api.isHashPasswordPwned(hit);
+    }
+
+    @Benchmark
+    public boolean isHashPasswordPwnedMiss() throws HaveIBeenPwndException {
+        return api.isHashPasswordPwned(miss);
+    }
+
+}
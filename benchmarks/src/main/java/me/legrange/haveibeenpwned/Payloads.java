@@ -0,0 +1,117 @@
+package me.legrange.haveibeenpwned;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds response payloads that look like those sent by the real APIs, so
+ * that benchmarks don't depend on the network.
+ *
+ * @author gideon
+ */
+final class Payloads {
+
+    /**
+     * The number of hashes in a typical range.
+     */
+    static final int RANGE_SIZE = 800;
+
+    /**
+     * Make a range response for the given prefix. The range always contains
+     * the hash of "password" with its prefix replaced, so there is a known hit.
+     *
+     * @param hash5   The prefix
+     * @param padding Add padding entries with a count of 0, the way the API
+     *                does when asked to
+     * @return The response body
+     */
+    static String range(String hash5, boolean padding) {
+        Random random = new Random(hash5.hashCode());
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < RANGE_SIZE; ++i) {
+            lines.add(suffix(random) + ":" + (1 + random.nextInt(10000)));
+        }
+        lines.add(knownHit(hash5).substring(5) + ":" + 3861493);
+        if (padding) {
+            int pad = 800 + random.nextInt(200) - lines.size() / 4;
+            for (int i = 0; i < pad; ++i) {
+                lines.add(suffix(random) + ":0");
+            }
+        }
+        Collections.sort(lines);
+        return String.join("\r\n", lines);
+    }
+
+    /**
+     * Get a hash that is in every range made by range().
+     *
+     * @param hash5 The prefix
+     * @return The full hash
+     */
+    static String knownHit(String hash5) {
+        return hash5 + HaveIBeenPwndApi.makeHash("password").substring(5);
+    }
+
+    /**
+     * Make a list of breaches based on a few recorded breaches.
+     *
+     * @param count The number of breaches
+     * @return The response body
+     */
+    static String breaches(int count) {
+        JsonArray recorded;
+        try (Reader in = new InputStreamReader(Payloads.class.getResourceAsStream("/breaches.json"), StandardCharsets.UTF_8)) {
+            recorded = new JsonParser().parse(in).getAsJsonArray();
+        } catch (Exception ex) {
+            throw new IllegalStateException("Cannot read recorded breaches", ex);
+        }
+        JsonArray res = new JsonArray();
+        for (int i = 0; i < count; ++i) {
+            JsonObject breach = recorded.get(i % recorded.size()).getAsJsonObject().deepCopy();
+            breach.addProperty("Name", breach.get("Name").getAsString() + i);
+            res.add(breach);
+        }
+        return res.toString();
+    }
+
+    /**
+     * Make a list of pastes.
+     *
+     * @param count The number of pastes
+     * @return The response body
+     */
+    static String pastes(int count) {
+        JsonArray res = new JsonArray();
+        for (int i = 0; i < count; ++i) {
+            JsonObject paste = new JsonObject();
+            paste.addProperty("Source", "Pastebin");
+            paste.addProperty("Id", "8Q0BvKD" + i);
+            paste.addProperty("Title", i % 3 == 0 ? null : "syslog " + i);
+            paste.addProperty("Date", "2014-03-04T19:14:54Z");
+            paste.addProperty("EmailCount", 139 + i);
+            res.add(paste);
+        }
+        return res.toString();
+    }
+
+    private static String suffix(Random random) {
+        char[] buf = new char[35];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = "0123456789ABCDEF".charAt(random.nextInt(16));
+        }
+        return new String(buf);
+    }
+
+    private Payloads() {
+    }
+
+}
@@ -0,0 +1,79 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing range responses, without the network. The splitting
+ * parser is the one the API used before range responses were streamed, and
+ * is kept as a baseline.
+ *
+ * @author gideon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeParserBenchmark {
+
+    private static final String HASH5 = "5BAA6";
+
+    @Param({"false", "true"})
+    public boolean padding;
+
+    private String body;
+    private byte[] bytes;
+    private String hit;
+    private String miss;
+
+    @Setup
+    public void setup() {
+        body = Payloads.range(HASH5, padding);
+        bytes = body.getBytes(StandardCharsets.US_ASCII);
+        hit = Payloads.knownHit(HASH5);
+        miss = HASH5 + "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF";
+    }
+
+    @Benchmark
+    public List<PwnedHash> splitParse() {
+        return Arrays.asList(body.split("\n")).stream()
+                .map(line -> line.replace("\r", "").split(":"))
+                .map(parts -> new PwnedHash(parts[0], Integer.parseInt(parts[1])))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public PwnedRange streamParse() throws IOException {
+        return RangeParser.parse(HASH5, 20, new Buffer().write(bytes));
+    }
+
+    @Benchmark
+    public int findCountHit() throws IOException {
+        return RangeParser.findCount(hit, 20, new Buffer().write(bytes));
+    }
+
+    @Benchmark
+    public int findCountMiss() throws IOException {
+        return RangeParser.findCount(miss, 20, new Buffer().write(bytes));
+    }
+
+}
@@ -0,0 +1,112 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load tests a RangeServer with many threads looking up passwords through
+ * the API. The server serves a synthetic corpus with a few hashes in every
+ * range, and lookups are spread over all ranges so that no range cache helps.
+ *
+ * @author gideon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(64)
+@Fork(1)
+public class RangeServerBenchmark {
+
+    private static final int HASHES_PER_RANGE = 4;
+
+    @Param({"false", "true"})
+    public boolean padding;
+
+    private Path dir;
+    private RangeFile ranges;
+    private RangeServer server;
+    private HaveIBeenPwndApi api;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, HaveIBeenPwndException {
+        dir = Files.createTempDirectory("hibp-range-server");
+        Path corpusFile = dir.resolve("corpus.bin");
+        try (CorpusWriter writer = new CorpusWriter(corpusFile, PasswordHasher.SHA1_LENGTH)) {
+            for (int prefix = 0; prefix < PwnedPasswordsCorpus.PREFIXES; ++prefix) {
+                for (int i = 0; i < HASHES_PER_RANGE; ++i) {
+                    writer.write(hash(prefix, i), i + 1);
+                }
+            }
+            writer.finish();
+        }
+        try (PwnedPasswordsCorpus corpus = PwnedPasswordsCorpus.open(corpusFile)) {
+            ranges = RangeFile.create(corpus, dir.resolve("ranges.bin"));
+        }
+        server = new RangeServer(ranges).start(new InetSocketAddress("127.0.0.1", 0));
+        api = HaveIBeenPwndBuilder.create("haveibeenpwned-benchmarks")
+                .withPwndPasswordsUrl(server.getUrl())
+                .addPadding(padding)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println(server);
+        server.close();
+        ranges.close();
+        Files.deleteIfExists(dir.resolve("ranges.bin"));
+        Files.deleteIfExists(dir.resolve("corpus.bin"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int getPwnedCountHit() throws HaveIBeenPwndException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] hash = hash(random.nextInt(PwnedPasswordsCorpus.PREFIXES), random.nextInt(HASHES_PER_RANGE));
+        return api.getPwnedCount(hash);
+    }
+
+    @Benchmark
+    public int getPwnedCountMiss() throws HaveIBeenPwndException {
+        byte[] hash = hash(ThreadLocalRandom.current().nextInt(PwnedPasswordsCorpus.PREFIXES), HASHES_PER_RANGE);
+        return api.getPwnedCount(hash);
+    }
+
+    /**
+     * Make the i'th hash in a range. The first bits after the prefix hold i,
+     * so the hashes in a range are in ascending order, and the rest is
+     * pseudo random.
+     */
+    private static byte[] hash(int prefix, int i) {
+        byte[] hash = new byte[PasswordHasher.SHA1_LENGTH];
+        new Random(((long) prefix << 8) | i).nextBytes(hash);
+        hash[0] = (byte) (prefix >> 12);
+        hash[1] = (byte) (prefix >> 4);
+        hash[2] = (byte) ((prefix << 4) | (i >> 4));
+        hash[3] = (byte) ((i << 4) | (hash[3] & 0x0F));
+        return hash;
+    }
+
+}
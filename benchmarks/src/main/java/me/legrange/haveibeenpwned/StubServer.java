@@ -0,0 +1,77 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A local HTTP server that stands in for both HaveIBeenPwned APIs and serves
+ * the payloads made by Payloads.
+ *
+ * @author gideon
+ */
+final class StubServer implements Closeable {
+
+    private final MockWebServer server = new MockWebServer();
+    private final Map<String, String> ranges = new ConcurrentHashMap<>();
+    private final String breaches = Payloads.breaches(600);
+    private final String accountBreaches = Payloads.breaches(12);
+    private final String pastes = Payloads.pastes(20);
+
+    StubServer() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                int query = path.indexOf('?');
+                if (query >= 0) {
+                    path = path.substring(0, query);
+                }
+                if (path.startsWith("/range/")) {
+                    String hash5 = path.substring(7);
+                    boolean padding = "true".equals(request.getHeader("Add-Padding"));
+                    String body = ranges.computeIfAbsent(hash5 + padding, k -> Payloads.range(hash5, padding));
+                    return new MockResponse().setBody(body);
+                } else if (path.equals("/breaches")) {
+                    return json(breaches);
+                } else if (path.startsWith("/breachedaccount/")) {
+                    return json(accountBreaches);
+                } else if (path.startsWith("/pasteaccount/")) {
+                    return json(pastes);
+                } else if (path.equals("/dataclasses")) {
+                    return json("[\"Email addresses\",\"Passwords\",\"Usernames\",\"Password hints\"]");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Create an API that calls this server.
+     *
+     * @return The builder, so that benchmarks can configure it further
+     */
+    HaveIBeenPwndBuilder builder() {
+        String url = server.url("/").toString();
+        return HaveIBeenPwndBuilder.create("haveibeenpwned-benchmarks")
+                .withHaveIBeenPwndUrl(url)
+                .withPwndPasswordsUrl(url);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+    }
+
+}
@@ -0,0 +1,184 @@
+package me.legrange.haveibeenpwned;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Looks up a stream of accounts for breaches concurrently. This is the
+ * pipeline behind both screenAccounts() and the AccountScreener.
+ * <p>
+ * Accounts are trimmed and lower cased, blank lines and lines starting with
+ * '#' are skipped, and each account is looked up only once. Duplicates are
+ * found with a set of 64 bit account fingerprints, so the set takes 11 to 22
+ * bytes per distinct account. A permit is taken for each lookup, and the
+ * handler gives it back once it no longer holds the result, so no more than
+ * the concurrency are in flight or held at once.
+ *
+ * @author gideon
+ */
+final class AccountLookups {
+
+    /**
+     * Receives the result of each lookup, on the thread that made it.
+     */
+    interface Handler {
+
+        /**
+         * Accept the result of a lookup. The handler must call release() for
+         * every result once it no longer holds on to it, and must not throw.
+         *
+         * @param id       The sequence number of the lookup, from 0
+         * @param lines    The number of input lines read up to this account
+         * @param account  The normalised account
+         * @param breaches The breaches for the account, or null if the lookup
+         *                 failed
+         */
+        void complete(long id, long lines, String account, List<Breach> breaches);
+
+    }
+
+    private final HaveIBeenPwndApi api;
+    private final int concurrency;
+    private final boolean virtualThreads;
+    private final boolean truncateResponse;
+    private final boolean includeUnverified;
+    private final LongHashSet seen = new LongHashSet();
+    private final byte[] hash = new byte[PasswordHasher.SHA1_LENGTH];
+    private final Semaphore permits;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private long duplicates = 0;
+
+    AccountLookups(HaveIBeenPwndApi api, int concurrency, boolean virtualThreads, boolean truncateResponse, boolean includeUnverified) {
+        this.api = api;
+        this.concurrency = concurrency;
+        this.virtualThreads = virtualThreads;
+        this.truncateResponse = truncateResponse;
+        this.includeUnverified = includeUnverified;
+        this.permits = new Semaphore(concurrency);
+    }
+
+    /**
+     * Mark an account as handled by an earlier run, so that it is not looked
+     * up again.
+     *
+     * @param account The account, as read from the input
+     */
+    void skip(String account) {
+        String res = normalise(account);
+        if (res != null) {
+            seen.add(fingerprint(res));
+        }
+    }
+
+    /**
+     * Look up accounts until the input ends or an error is recorded, and
+     * wait for all the lookups started to be released.
+     *
+     * @param accounts The accounts, as read from the input
+     * @param lines    The number of input lines read before the first account
+     * @param handler  Receives the results
+     * @return The number of input lines read
+     * @throws HaveIBeenPwndException Thrown if interrupted
+     */
+    long run(Iterator<String> accounts, long lines, Handler handler) throws HaveIBeenPwndException {
+        ExecutorService executor = VirtualThreads.newExecutor(virtualThreads, concurrency);
+        long seq = 0;
+        try {
+            while (accounts.hasNext() && error.get() == null) {
+                String account = normalise(accounts.next());
+                long read = ++lines;
+                if (account == null) {
+                    continue;
+                }
+                if (!seen.add(fingerprint(account))) {
+                    duplicates++;
+                    continue;
+                }
+                permits.acquire();
+                if (error.get() != null) {
+                    permits.release();
+                    break;
+                }
+                long id = seq++;
+                executor.execute(() -> {
+                    List<Breach> breaches = null;
+                    try {
+                        breaches = api.getAllBreachesForAccount(account, null, truncateResponse, includeUnverified);
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    } finally {
+                        handler.complete(id, read, account, breaches);
+                    }
+                });
+            }
+            permits.acquire(concurrency);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new HaveIBeenPwndException("Interrupted while screening accounts", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        return lines;
+    }
+
+    /**
+     * Give back the permit of a lookup whose result has been handled.
+     */
+    void release() {
+        permits.release();
+    }
+
+    /**
+     * Record an error, which stops new lookups from being started. Only the
+     * first error is kept.
+     *
+     * @param ex The error
+     */
+    void fail(Throwable ex) {
+        error.compareAndSet(null, ex);
+    }
+
+    /**
+     * Get the first error recorded.
+     *
+     * @return The error, or null if there was none
+     */
+    Throwable getError() {
+        return error.get();
+    }
+
+    /**
+     * Get the number of duplicate accounts that were skipped.
+     *
+     * @return The number of duplicates
+     */
+    long getDuplicates() {
+        return duplicates;
+    }
+
+    private static String normalise(String account) {
+        String res = account.trim();
+        if (res.isEmpty() || res.startsWith("#")) {
+            return null;
+        }
+        return res.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Make a 64 bit fingerprint of an account from its SHA1 hash.
+     */
+    private long fingerprint(String account) {
+        PasswordHasher.sha1(account.getBytes(StandardCharsets.UTF_8), hash);
+        long res = 0;
+        for (int i = 0; i < 8; ++i) {
+            res = (res << 8) | (hash[i] & 0xFF);
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,387 @@
+package me.legrange.haveibeenpwned;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Screens a large list of accounts for breaches and writes the results to a
+ * file as newline delimited JSON, one object per account:
+ * <pre>
+ * {"account":"someone@example.com","pwned":true,"breaches":["Adobe"]}
+ * </pre>
+ * Accounts are normalised and de-duplicated the same way as by
+ * {@link HaveIBeenPwndApi#screenAccounts(Stream)}: trimmed and lower cased,
+ * and each account looked up only once. Lookups run concurrently at the rate
+ * allowed by the API's rate limiter, and results are written in input
+ * order.
+ * <p>
+ * A checkpoint file next to the output records how many input lines have
+ * been handled and how long the output was at that point. If a run stops,
+ * running it again with the same input and output resumes at the last
+ * checkpoint. Results are only written in input order, so the lookups
+ * repeated are those since the last checkpoint and those that finished out
+ * of order or were still running: at most the checkpoint interval plus the
+ * concurrency. Delete the output and its checkpoint to start over.
+ *
+ * @author gideon
+ */
+public final class AccountScreener {
+
+    private final HaveIBeenPwndApi api;
+    private final Path output;
+    private final Path checkpoint;
+    private final boolean virtualThreads;
+    private final Gson gson = new Gson();
+    private int concurrency;
+    private int checkpointInterval = 1000;
+    private boolean includeUnverified = false;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong pwned = new AtomicLong();
+    private long duplicates = 0;
+    private long resumed = 0;
+
+    AccountScreener(HaveIBeenPwndApi api, Path output, int concurrency, boolean virtualThreads) {
+        this.api = api;
+        this.output = output;
+        this.checkpoint = output.resolveSibling(output.getFileName() + ".checkpoint");
+        this.concurrency = concurrency;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set how many lookups run at the same time. The rate limiter set on the
+     * API still decides how many requests are sent per minute.
+     *
+     * @param concurrency The number of concurrent lookups
+     * @return The screener
+     */
+    public AccountScreener withConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Set how many results are written between checkpoints.
+     *
+     * @param checkpointInterval The number of results
+     * @return The screener
+     */
+    public AccountScreener withCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be at least 1");
+        }
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    /**
+     * Include breaches that have been flagged as unverified.
+     *
+     * @param includeUnverified True to include unverified breaches
+     * @return The screener
+     */
+    public AccountScreener withUnverifiedBreaches(boolean includeUnverified) {
+        this.includeUnverified = includeUnverified;
+        return this;
+    }
+
+    /**
+     * Screen the accounts in a file, one per line. Blank lines and lines
+     * starting with '#' are skipped.
+     *
+     * @param input The input file
+     * @return The number of accounts looked up in this run
+     * @throws HaveIBeenPwndException Thrown if the files cannot be read or
+     *                                written, or a lookup fails
+     */
+    public long run(Path input) throws HaveIBeenPwndException {
+        try (Stream<String> lines = Files.lines(input, StandardCharsets.UTF_8)) {
+            return run(lines);
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        } catch (UncheckedIOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex.getCause());
+        }
+    }
+
+    /**
+     * Screen a stream of accounts. To resume, the stream must produce the
+     * same accounts in the same order as before.
+     *
+     * @param accounts The accounts
+     * @return The number of accounts looked up in this run
+     * @throws HaveIBeenPwndException Thrown if the output cannot be written,
+     *                                or a lookup fails
+     */
+    public long run(Stream<String> accounts) throws HaveIBeenPwndException {
+        long[] start = readCheckpoint();
+        AccountLookups pipeline = new AccountLookups(api, concurrency, virtualThreads, true, includeUnverified);
+        Iterator<String> it = accounts.iterator();
+        long line = 0;
+        while (line < start[0] && it.hasNext()) {
+            pipeline.skip(it.next());
+            line++;
+        }
+        if (line < start[0]) {
+            throw new HaveIBeenPwndException("The input is shorter than the checkpoint in " + checkpoint);
+        }
+        resumed = line;
+        long before = lookups.get();
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() < start[1]) {
+                throw new HaveIBeenPwndException("The output is shorter than the checkpoint in " + checkpoint);
+            }
+            channel.truncate(start[1]);
+            channel.position(start[1]);
+            Results results = new Results(channel, pipeline, line);
+            try {
+                line = pipeline.run(it, line, results::complete);
+            } finally {
+                duplicates += pipeline.getDuplicates();
+            }
+            if (pipeline.getError() == null) {
+                results.finish(line);
+            }
+            HaveIBeenPwndApi.rethrow(pipeline.getError());
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        }
+        return lookups.get() - before;
+    }
+
+    /**
+     * Get the number of accounts looked up.
+     *
+     * @return The number of lookups
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Get the number of accounts found in breaches.
+     *
+     * @return The number of pwned accounts
+     */
+    public long getPwned() {
+        return pwned.get();
+    }
+
+    /**
+     * Get the number of duplicate accounts that were skipped.
+     *
+     * @return The number of duplicates
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Get the number of input lines skipped because they were handled by an
+     * earlier run.
+     *
+     * @return The number of lines
+     */
+    public long getResumedLines() {
+        return resumed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AccountScreener{lookups=%d, pwned=%d, duplicates=%d, resumedLines=%d}",
+                getLookups(), getPwned(), duplicates, resumed);
+    }
+
+    /**
+     * Screen the accounts in a file from the command line. The API key is
+     * read from the HIBP_API_KEY environment variable, and its tier from
+     * HIBP_TIER (PWNED_1 if not set).
+     *
+     * @param args The input and output files
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: AccountScreener <accounts file> <output file>");
+            System.exit(2);
+        }
+        String apiKey = System.getenv("HIBP_API_KEY");
+        if (apiKey == null || apiKey.isEmpty()) {
+            System.err.println("Set HIBP_API_KEY to your API key");
+            System.exit(2);
+        }
+        String tier = System.getenv("HIBP_TIER");
+        HaveIBeenPwndApi api = HaveIBeenPwndBuilder.create("haveibeenpwned-screener")
+                .withApiKey(apiKey)
+                .withRateLimit(tier == null ? ApiKeyTier.PWNED_1 : ApiKeyTier.valueOf(tier.toUpperCase(Locale.ROOT)))
+                .withMaxRetries(5)
+                .withVirtualThreads(true)
+                .build();
+        AccountScreener screener = api.createAccountScreener(Paths.get(args[1]));
+        try {
+            screener.run(Paths.get(args[0]));
+            System.out.println(screener);
+        } catch (HaveIBeenPwndException ex) {
+            System.err.println(screener);
+            System.err.println("Screening stopped: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private String toJson(String account, List<Breach> breaches) {
+        lookups.incrementAndGet();
+        Map<String, Object> result = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>(breaches.size());
+        for (Breach breach : breaches) {
+            names.add(breach.getName());
+        }
+        if (!names.isEmpty()) {
+            pwned.incrementAndGet();
+        }
+        result.put("account", account);
+        result.put("pwned", !names.isEmpty());
+        result.put("breaches", names);
+        return gson.toJson(result);
+    }
+
+    /**
+     * Read the checkpoint.
+     *
+     * @return The number of input lines handled and the output length, or
+     * zeroes if there is no checkpoint
+     */
+    private long[] readCheckpoint() throws HaveIBeenPwndException {
+        try (BufferedReader in = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+            String[] fields = in.readLine().trim().split(" ");
+            return new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1])};
+        } catch (NoSuchFileException ex) {
+            return new long[]{0, 0};
+        } catch (IOException | RuntimeException ex) {
+            throw new HaveIBeenPwndException("Invalid checkpoint " + checkpoint, ex);
+        }
+    }
+
+    private void writeCheckpoint(long lines, long offset) throws IOException {
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(lines + " " + offset + "\n");
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Puts results back in input order and writes them, with a checkpoint
+     * after every interval. A permit is released only when a result has been
+     * written, so no more than the concurrency are held in memory.
+     */
+    private final class Results {
+
+        private final FileChannel channel;
+        private final AccountLookups pipeline;
+        private final Map<Long, Result> pending = new HashMap<>();
+        private final StringBuilder buffer = new StringBuilder();
+        private long next = 0;
+        private long lines;
+        private int unsaved = 0;
+        private boolean failed = false;
+
+        private Results(FileChannel channel, AccountLookups pipeline, long lines) {
+            this.channel = channel;
+            this.pipeline = pipeline;
+            this.lines = lines;
+        }
+
+        /**
+         * Accept the result of a lookup.
+         *
+         * @param id       The sequence number of the lookup
+         * @param lines    The number of input lines handled once this result
+         *                 is written
+         * @param account  The account
+         * @param breaches The breaches, or null if the lookup failed
+         */
+        synchronized void complete(long id, long lines, String account, List<Breach> breaches) {
+            pending.put(id, new Result(lines, breaches == null ? null : toJson(account, breaches)));
+            Result result;
+            while ((result = pending.remove(next)) != null) {
+                next++;
+                if (result.json == null && !failed) {
+                    save();
+                    failed = true;
+                }
+                if (!failed) {
+                    buffer.append(result.json).append('\n');
+                    this.lines = result.lines;
+                    if (++unsaved >= checkpointInterval) {
+                        save();
+                    }
+                }
+                pipeline.release();
+            }
+        }
+
+        /**
+         * Write the remaining results and the final checkpoint.
+         *
+         * @param lines The number of input lines handled
+         */
+        synchronized void finish(long lines) {
+            this.lines = lines;
+            save();
+        }
+
+        private void save() {
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+                writeCheckpoint(lines, channel.position());
+                buffer.setLength(0);
+                unsaved = 0;
+            } catch (IOException ex) {
+                failed = true;
+                pipeline.fail(ex);
+            }
+        }
+
+    }
+
+    private static final class Result {
+
+        private final long lines;
+        private final String json;
+
+        private Result(long lines, String json) {
+            this.lines = lines;
+            this.json = json;
+        }
+
+    }
+
+}
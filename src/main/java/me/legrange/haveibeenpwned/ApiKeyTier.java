@@ -0,0 +1,32 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * The HaveIBeenPwned API key subscriptions and the number of requests per
+ * minute each allows.
+ *
+ * @author gideon
+ */
+public enum ApiKeyTier {
+
+    PWNED_1(10),
+    PWNED_2(50),
+    PWNED_3(100),
+    PWNED_4(500),
+    PWNED_5(1000);
+
+    private final int requestsPerMinute;
+
+    ApiKeyTier(int requestsPerMinute) {
+        this.requestsPerMinute = requestsPerMinute;
+    }
+
+    /**
+     * Get the number of requests per minute allowed for this tier.
+     *
+     * @return The requests per minute
+     */
+    public int getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+}
@@ -0,0 +1,179 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation that keeps its measurements in memory, with no other
+ * dependencies. Latencies and parse times are kept per endpoint in
+ * histograms.
+ *
+ * @author gideon
+ */
+public final class ApiMetrics implements Instrumentation {
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder[]> caches = new ConcurrentHashMap<>();
+    private final Histogram rateLimitWait = new Histogram();
+
+    @Override
+    public void onResponse(String endpoint, int status, long nanos) {
+        Endpoint metrics = endpoint(endpoint);
+        metrics.latency.record(nanos);
+        metrics.statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void onFailure(String endpoint, Throwable error, long nanos) {
+        Endpoint metrics = endpoint(endpoint);
+        metrics.latency.record(nanos);
+        metrics.failures.increment();
+    }
+
+    @Override
+    public void onBytesRead(String endpoint, long bytes) {
+        endpoint(endpoint).bytes.add(bytes);
+    }
+
+    @Override
+    public void onParse(String endpoint, long nanos) {
+        endpoint(endpoint).parse.record(nanos);
+    }
+
+    @Override
+    public void onCacheLookup(String cache, boolean hit) {
+        caches.computeIfAbsent(cache, k -> new LongAdder[]{new LongAdder(), new LongAdder()})[hit ? 0 : 1].increment();
+    }
+
+    @Override
+    public void onRateLimitWait(long nanos) {
+        rateLimitWait.record(nanos);
+    }
+
+    /**
+     * Get the endpoints that have been called.
+     *
+     * @return The endpoint names
+     */
+    public Set<String> getEndpoints() {
+        return Collections.unmodifiableSet(endpoints.keySet());
+    }
+
+    /**
+     * Get the response times for an endpoint, up to the response headers.
+     *
+     * @param endpoint The endpoint
+     * @return The latency histogram
+     */
+    public Histogram getLatency(String endpoint) {
+        return endpoint(endpoint).latency;
+    }
+
+    /**
+     * Get the time spent parsing responses from an endpoint.
+     *
+     * @param endpoint The endpoint
+     * @return The parse time histogram
+     */
+    public Histogram getParseTime(String endpoint) {
+        return endpoint(endpoint).parse;
+    }
+
+    /**
+     * Get the number of responses from an endpoint for each HTTP status.
+     *
+     * @param endpoint The endpoint
+     * @return The counts by status code
+     */
+    public Map<Integer, Long> getStatusCounts(String endpoint) {
+        Map<Integer, Long> res = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : endpoint(endpoint).statuses.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().sum());
+        }
+        return res;
+    }
+
+    /**
+     * Get the number of requests to an endpoint that failed without a
+     * response.
+     *
+     * @param endpoint The endpoint
+     * @return The number of failures
+     */
+    public long getFailures(String endpoint) {
+        return endpoint(endpoint).failures.sum();
+    }
+
+    /**
+     * Get the number of response body bytes received from an endpoint, before
+     * they were decompressed.
+     *
+     * @param endpoint The endpoint
+     * @return The number of bytes
+     */
+    public long getBytesRead(String endpoint) {
+        return endpoint(endpoint).bytes.sum();
+    }
+
+    /**
+     * Get the fraction of lookups in a cache that were hits.
+     *
+     * @param cache The name of the cache
+     * @return The hit rate, between 0 and 1
+     */
+    public double getCacheHitRate(String cache) {
+        LongAdder[] counts = caches.get(cache);
+        if (counts == null) {
+            return 0;
+        }
+        long hits = counts[0].sum();
+        long total = hits + counts[1].sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Get the time calls waited because of the rate limit or retries.
+     *
+     * @return The wait time histogram
+     */
+    public Histogram getRateLimitWait() {
+        return rateLimitWait;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("ApiMetrics{");
+        for (String endpoint : new TreeMap<>(endpoints).keySet()) {
+            buf.append(endpoint).append("={latency=").append(getLatency(endpoint))
+                    .append(", parse=").append(getParseTime(endpoint))
+                    .append(", statuses=").append(getStatusCounts(endpoint))
+                    .append(", failures=").append(getFailures(endpoint))
+                    .append(", bytes=").append(getBytesRead(endpoint))
+                    .append("}, ");
+        }
+        for (String cache : new TreeMap<>(caches).keySet()) {
+            buf.append(cache).append("Cache={hitRate=").append(getCacheHitRate(cache)).append("}, ");
+        }
+        return buf.append("rateLimitWait=").append(rateLimitWait).append('}').toString();
+    }
+
+    private Endpoint endpoint(String name) {
+        return endpoints.computeIfAbsent(name, k -> new Endpoint());
+    }
+
+    private static final class Endpoint {
+
+        private final Histogram latency = new Histogram();
+        private final Histogram parse = new Histogram();
+        private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+    }
+
+}
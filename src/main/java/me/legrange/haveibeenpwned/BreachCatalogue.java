@@ -0,0 +1,356 @@
+package me.legrange.haveibeenpwned;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory copy of all the breaches in the system, indexed by name,
+ * domain and data class so that they can be queried without calling the API.
+ * <p>
+ * The catalogue is loaded the first time it is used, and is refreshed in the
+ * background. The indexes are only rebuilt if a breach has been added or
+ * modified since the last load.
+ * <p>
+ * The Breach objects returned are shared by all callers and should not be
+ * modified.
+ *
+ * @author gideon
+ */
+public final class BreachCatalogue {
+
+    /**
+     * Loads the catalogue data from the API.
+     */
+    interface Loader {
+
+        List<Breach> loadBreaches() throws HaveIBeenPwndException;
+
+        List<String> loadDataClasses() throws HaveIBeenPwndException;
+
+    }
+
+    private final Loader loader;
+    private final Duration refreshInterval;
+    private volatile Snapshot snapshot;
+    private volatile HaveIBeenPwndException lastError;
+    private ScheduledExecutorService scheduler;
+
+    BreachCatalogue(Loader loader, Duration refreshInterval) {
+        this.loader = loader;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Get all the breaches.
+     *
+     * @return The breaches
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public List<Breach> getAll() throws HaveIBeenPwndException {
+        return snapshot().breaches;
+    }
+
+    /**
+     * Get a breach by its name. Names are not case sensitive.
+     *
+     * @param name The name of the breach
+     * @return The breach if found
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public Optional<Breach> getByName(String name) throws HaveIBeenPwndException {
+        return Optional.ofNullable(snapshot().byName.get(key(name)));
+    }
+
+    /**
+     * Get all breaches for a domain. Domains are not case sensitive.
+     *
+     * @param domain The domain
+     * @return The breaches
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public List<Breach> getByDomain(String domain) throws HaveIBeenPwndException {
+        return snapshot().byDomain.getOrDefault(key(domain), Collections.emptyList());
+    }
+
+    /**
+     * Get all breaches that exposed a data class, for example "Passwords".
+     *
+     * @param dataClass The data class
+     * @return The breaches
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public List<Breach> getByDataClass(String dataClass) throws HaveIBeenPwndException {
+        return query().withDataClass(dataClass).list();
+    }
+
+    /**
+     * Get all the data classes.
+     *
+     * @return The data classes
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public List<String> getDataClasses() throws HaveIBeenPwndException {
+        return snapshot().dataClasses;
+    }
+
+    /**
+     * Start a query that filters breaches on their flags and data classes.
+     *
+     * @return The query
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public Query query() throws HaveIBeenPwndException {
+        return new Query(snapshot());
+    }
+
+    /**
+     * Reload the catalogue now.
+     *
+     * @return True if the catalogue changed
+     * @throws HaveIBeenPwndException Thrown if the catalogue cannot be loaded
+     */
+    public boolean refresh() throws HaveIBeenPwndException {
+        List<Breach> breaches = loader.loadBreaches();
+        Snapshot current = snapshot;
+        if (current != null && current.breaches.size() == breaches.size() && current.lastChange == lastChange(breaches)) {
+            return false;
+        }
+        snapshot = new Snapshot(breaches, loader.loadDataClasses());
+        return true;
+    }
+
+    /**
+     * Get the error from the last background refresh, if it failed.
+     *
+     * @return The error, or null if the last refresh succeeded
+     */
+    public HaveIBeenPwndException getLastRefreshError() {
+        return lastError;
+    }
+
+    /**
+     * Is the catalogue loaded?
+     *
+     * @return True if it is loaded
+     */
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    private Snapshot snapshot() throws HaveIBeenPwndException {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                    startRefresh();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private void startRefresh() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hibp-breach-catalogue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = refreshInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+                lastError = null;
+            } catch (HaveIBeenPwndException ex) {
+                lastError = ex;
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static long lastChange(List<Breach> breaches) {
+        long last = 0;
+        for (Breach breach : breaches) {
+            last = Math.max(last, time(breach.getAddedDate()));
+            last = Math.max(last, time(breach.getModifiedDate()));
+        }
+        return last;
+    }
+
+    private static long time(Date date) {
+        return date == null ? 0 : date.getTime();
+    }
+
+    private static String key(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A query over the breaches in the catalogue. Filters are combined, and
+     * evaluated using precomputed bit sets.
+     */
+    public static final class Query {
+
+        private final Snapshot snapshot;
+        private final BitSet selected;
+
+        private Query(Snapshot snapshot) {
+            this.snapshot = snapshot;
+            this.selected = new BitSet(snapshot.breaches.size());
+            selected.set(0, snapshot.breaches.size());
+        }
+
+        /**
+         * Only include verified or unverified breaches.
+         *
+         * @param verified Include verified (true) or unverified (false)
+         * @return The query
+         */
+        public Query verified(boolean verified) {
+            return filter(snapshot.verified, verified);
+        }
+
+        /**
+         * Only include sensitive or non-sensitive breaches.
+         *
+         * @param sensitive Include sensitive (true) or non-sensitive (false)
+         * @return The query
+         */
+        public Query sensitive(boolean sensitive) {
+            return filter(snapshot.sensitive, sensitive);
+        }
+
+        /**
+         * Only include spam lists or breaches that are not spam lists.
+         *
+         * @param spamList Include spam lists (true) or not (false)
+         * @return The query
+         */
+        public Query spamList(boolean spamList) {
+            return filter(snapshot.spamList, spamList);
+        }
+
+        /**
+         * Only include fabricated or non-fabricated breaches.
+         *
+         * @param fabricated Include fabricated (true) or not (false)
+         * @return The query
+         */
+        public Query fabricated(boolean fabricated) {
+            return filter(snapshot.fabricated, fabricated);
+        }
+
+        /**
+         * Only include retired or non-retired breaches.
+         *
+         * @param retired Include retired (true) or not (false)
+         * @return The query
+         */
+        public Query retired(boolean retired) {
+            return filter(snapshot.retired, retired);
+        }
+
+        /**
+         * Only include breaches that exposed the given data class.
+         *
+         * @param dataClass The data class
+         * @return The query
+         */
+        public Query withDataClass(String dataClass) {
+            BitSet bits = snapshot.byDataClass.get(key(dataClass));
+            if (bits == null) {
+                selected.clear();
+            } else {
+                selected.and(bits);
+            }
+            return this;
+        }
+
+        /**
+         * Get the breaches matching the query.
+         *
+         * @return The breaches
+         */
+        public List<Breach> list() {
+            List<Breach> res = new ArrayList<>(selected.cardinality());
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                res.add(snapshot.breaches.get(i));
+            }
+            return res;
+        }
+
+        /**
+         * Count the breaches matching the query.
+         *
+         * @return The number of breaches
+         */
+        public int count() {
+            return selected.cardinality();
+        }
+
+        private Query filter(BitSet bits, boolean value) {
+            if (value) {
+                selected.and(bits);
+            } else {
+                selected.andNot(bits);
+            }
+            return this;
+        }
+
+    }
+
+    /**
+     * An immutable, indexed copy of the breaches.
+     */
+    private static final class Snapshot {
+
+        private final List<Breach> breaches;
+        private final List<String> dataClasses;
+        private final long lastChange;
+        private final Map<String, Breach> byName = new HashMap<>();
+        private final Map<String, List<Breach>> byDomain = new HashMap<>();
+        private final Map<String, BitSet> byDataClass = new HashMap<>();
+        private final BitSet verified = new BitSet();
+        private final BitSet sensitive = new BitSet();
+        private final BitSet spamList = new BitSet();
+        private final BitSet fabricated = new BitSet();
+        private final BitSet retired = new BitSet();
+
+        private Snapshot(List<Breach> breaches, List<String> dataClasses) {
+            this.breaches = Collections.unmodifiableList(new ArrayList<>(breaches));
+            this.dataClasses = Collections.unmodifiableList(new ArrayList<>(dataClasses));
+            this.lastChange = lastChange(breaches);
+            for (int i = 0; i < breaches.size(); ++i) {
+                Breach breach = breaches.get(i);
+                byName.put(key(breach.getName()), breach);
+                if (breach.getDomain() != null && !breach.getDomain().isEmpty()) {
+                    byDomain.computeIfAbsent(key(breach.getDomain()), k -> new ArrayList<>()).add(breach);
+                }
+                if (breach.getDataClasses() != null) {
+                    for (String dataClass : breach.getDataClasses()) {
+                        byDataClass.computeIfAbsent(key(dataClass), k -> new BitSet()).set(i);
+                    }
+                }
+                verified.set(i, breach.isVerified());
+                sensitive.set(i, breach.isSensitive());
+                spamList.set(i, breach.isSpamList());
+                fabricated.set(i, breach.isFabricated());
+                retired.set(i, breach.isRetired());
+            }
+            byDomain.replaceAll((domain, list) -> Collections.unmodifiableList(list));
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * The fields of a breach, used to choose which fields are decoded when
+ * breaches are streamed.
+ *
+ * @author gideon
+ */
+public enum BreachField {
+
+    NAME("Name"),
+    TITLE("Title"),
+    DOMAIN("Domain"),
+    BREACH_DATE("BreachDate"),
+    ADDED_DATE("AddedDate"),
+    MODIFIED_DATE("ModifiedDate"),
+    PWN_COUNT("PwnCount"),
+    DESCRIPTION("Description"),
+    DATA_CLASSES("DataClasses"),
+    IS_VERIFIED("IsVerified"),
+    IS_FABRICATED("IsFabricated"),
+    IS_SENSITIVE("IsSensitive"),
+    IS_RETIRED("IsRetired"),
+    IS_SPAM_LIST("IsSpamList"),
+    LOGO_PATH("LogoPath");
+
+    private final String jsonName;
+
+    BreachField(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    /**
+     * Get the name of the field in the API's JSON.
+     *
+     * @return The JSON name
+     */
+    public String getJsonName() {
+        return jsonName;
+    }
+
+}
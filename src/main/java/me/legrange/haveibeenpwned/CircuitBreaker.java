@@ -0,0 +1,230 @@
+package me.legrange.haveibeenpwned;
+
+import java.time.Duration;
+
+/**
+ * A circuit breaker that stops calls to an API that is failing or slow, so
+ * that callers fail fast instead of waiting for it. Calls that fail, or that
+ * take longer than the slow call threshold, count against the API. When too
+ * many of the recent calls count against it, the breaker opens and rejects
+ * calls. After the open duration one trial call is let through, and the
+ * breaker closes again if it succeeds in time.
+ *
+ * @author gideon
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The states of the breaker.
+     */
+    public enum State {
+        /** Calls are let through. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** A trial call is let through to see if the API has recovered. */
+        HALF_OPEN
+    }
+
+    /**
+     * What a caller was allowed to do by {@link #allowRequest()}.
+     */
+    enum Permit {
+        /** The call may not be made. */
+        REJECTED,
+        /** The call may be made while the breaker is closed. */
+        CALL,
+        /** The call is the trial that decides if the breaker closes. */
+        TRIAL
+    }
+
+    private static final int WINDOW = 20;
+    private static final int MIN_CALLS = 10;
+
+    private final long slowCallNanos;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int calls = 0;
+    private int failures = 0;
+    private int next = 0;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight = false;
+    private long rejected = 0;
+    private long trips = 0;
+
+    /**
+     * Create a circuit breaker that counts calls slower than 2 seconds as
+     * failures, opens when half of the recent calls fail, and stays open for
+     * 30 seconds.
+     */
+    public CircuitBreaker() {
+        this(Duration.ofSeconds(2), 0.5, Duration.ofSeconds(30));
+    }
+
+    /**
+     * Create a circuit breaker.
+     *
+     * @param slowCallThreshold    Calls slower than this count as failures
+     * @param failureRateThreshold The fraction of the recent calls that must
+     *                             fail to open the breaker, between 0 and 1
+     * @param openDuration         How long the breaker stays open before a
+     *                             trial call is let through
+     */
+    public CircuitBreaker(Duration slowCallThreshold, double failureRateThreshold, Duration openDuration) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("Failure rate threshold must be more than 0 and at most 1");
+        }
+        this.slowCallNanos = slowCallThreshold.toNanos();
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Get the current state of the breaker.
+     *
+     * @return The state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Get the fraction of the recent calls that failed or were slow.
+     *
+     * @return The failure rate, between 0 and 1
+     */
+    public synchronized double getFailureRate() {
+        return calls == 0 ? 0 : (double) failures / calls;
+    }
+
+    /**
+     * Get the number of calls rejected because the breaker was open.
+     *
+     * @return The number of rejected calls
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Get the number of times the breaker has opened.
+     *
+     * @return The number of trips
+     */
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CircuitBreaker{state=%s, failureRate=%.2f, rejected=%d, trips=%d}",
+                getState(), getFailureRate(), rejected, trips);
+    }
+
+    /**
+     * Check if a call may be made. A call that is allowed must be followed
+     * by a call to onSuccess(), onFailure() or onIgnored() with the permit
+     * it was given.
+     *
+     * @return The permit for the call
+     */
+    synchronized Permit allowRequest() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected++;
+                return Permit.REJECTED;
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                rejected++;
+                return Permit.REJECTED;
+            }
+            trialInFlight = true;
+            return Permit.TRIAL;
+        }
+        return Permit.CALL;
+    }
+
+    /**
+     * Record a call that completed.
+     *
+     * @param permit The permit the call was given
+     * @param nanos  How long the call took
+     */
+    synchronized void onSuccess(Permit permit, long nanos) {
+        record(permit, nanos > slowCallNanos);
+    }
+
+    /**
+     * Record a call that failed.
+     *
+     * @param permit The permit the call was given
+     */
+    synchronized void onFailure(Permit permit) {
+        record(permit, true);
+    }
+
+    /**
+     * Record a call that was abandoned, for example because it was cancelled,
+     * without counting it either way.
+     *
+     * @param permit The permit the call was given
+     */
+    synchronized void onIgnored(Permit permit) {
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Only the trial call decides if a half open breaker closes. Calls
+     * admitted before the breaker opened are only counted while it is
+     * closed.
+     */
+    private void record(Permit permit, boolean failed) {
+        if (permit == Permit.TRIAL) {
+            trialInFlight = false;
+            if (failed) {
+                open();
+            } else {
+                state = State.CLOSED;
+                calls = 0;
+                failures = 0;
+                next = 0;
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            return;
+        }
+        if (calls == WINDOW) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % WINDOW;
+        if (calls >= MIN_CALLS && failures >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        trips++;
+    }
+
+}
@@ -0,0 +1,63 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.util.Map;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Passes HTTP calls through the circuit breaker for their host. Calls to a
+ * host whose breaker is open fail at once with an IOException. Responses
+ * with server errors count as failures. Responses that say there are too
+ * many requests are not counted: they mean the API key's quota is used up,
+ * which is handled by backing off and retrying, not by opening the breaker.
+ *
+ * @author gideon
+ */
+final class CircuitBreakerInterceptor implements Interceptor {
+
+    private final Map<String, CircuitBreaker> breakers;
+
+    CircuitBreakerInterceptor(Map<String, CircuitBreaker> breakers) {
+        this.breakers = breakers;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String host = chain.request().url().host();
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            return chain.proceed(chain.request());
+        }
+        CircuitBreaker.Permit permit = breaker.allowRequest();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            throw new IOException("Circuit breaker for " + host + " is open");
+        }
+        long start = System.nanoTime();
+        boolean recorded = false;
+        try {
+            Response response = chain.proceed(chain.request());
+            if (response.code() >= 500) {
+                breaker.onFailure(permit);
+                recorded = true;
+            } else if (response.code() != 429) {
+                breaker.onSuccess(permit, System.nanoTime() - start);
+                recorded = true;
+            }
+            return response;
+        } catch (IOException | RuntimeException ex) {
+            if (!chain.call().isCanceled()) {
+                breaker.onFailure(permit);
+                recorded = true;
+            }
+            throw ex;
+        } finally {
+            // cancelled calls, 429s and errors must still release the trial
+            if (!recorded) {
+                breaker.onIgnored(permit);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a corpus file in the format read by PwnedPasswordsCorpus. Hashes
+ * must be written in ascending order. The file is written to a temporary file
+ * and only moved into place when finished.
+ *
+ * @author gideon
+ */
+final class CorpusWriter implements Closeable {
+
+    private final Path file;
+    private final Path tmp;
+    private final int hashLength;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final long[] index = new long[PwnedPasswordsCorpus.PREFIXES + 1];
+    private final byte[] last;
+    private long records = 0;
+    private int nextPrefix = 0;
+    private boolean finished = false;
+
+    CorpusWriter(Path file, int hashLength) throws IOException {
+        this.file = file;
+        this.hashLength = hashLength;
+        this.last = new byte[hashLength];
+        Path dir = file.toAbsolutePath().getParent();
+        tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(PwnedPasswordsCorpus.DATA_OFFSET);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    /**
+     * Write a hash and its count.
+     *
+     * @param hash  The hash
+     * @param count The number of times the hash was seen
+     * @throws IOException Thrown if the hash cannot be written
+     */
+    void write(byte[] hash, int count) throws IOException {
+        if (records > 0 && compare(hash, last) <= 0) {
+            throw new IllegalStateException("Hashes must be written in ascending order");
+        }
+        int prefix = ((hash[0] & 0xFF) << 12) | ((hash[1] & 0xFF) << 4) | ((hash[2] & 0xFF) >> 4);
+        while (nextPrefix <= prefix) {
+            index[nextPrefix++] = records;
+        }
+        out.write(hash, 0, hashLength);
+        out.writeInt(count);
+        System.arraycopy(hash, 0, last, 0, hashLength);
+        records++;
+    }
+
+    /**
+     * Write the header and index, and move the finished corpus into place.
+     *
+     * @throws IOException Thrown if the corpus cannot be written
+     */
+    void finish() throws IOException {
+        while (nextPrefix <= PwnedPasswordsCorpus.PREFIXES) {
+            index[nextPrefix++] = records;
+        }
+        out.flush();
+        ByteBuffer header = ByteBuffer.allocate((int) PwnedPasswordsCorpus.DATA_OFFSET);
+        header.putInt(PwnedPasswordsCorpus.MAGIC);
+        header.putInt(PwnedPasswordsCorpus.VERSION);
+        header.putInt(hashLength);
+        header.putLong(records);
+        for (long idx : index) {
+            header.putLong(idx);
+        }
+        header.flip();
+        long pos = 0;
+        while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+        }
+        channel.force(true);
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    /**
+     * Close the writer. If the corpus was not finished the partial file is
+     * removed.
+     *
+     * @throws IOException Thrown if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            channel.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < hashLength; ++i) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+}
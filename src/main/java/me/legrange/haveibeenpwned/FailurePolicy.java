@@ -0,0 +1,26 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * What a password check does when the Pwned Passwords API cannot be reached,
+ * is too slow or returns an error.
+ *
+ * @author gideon
+ */
+public enum FailurePolicy {
+
+    /**
+     * Treat the password as not pwned, so that logins keep working while the
+     * API is down.
+     */
+    FAIL_OPEN,
+    /**
+     * Throw a HaveIBeenPwndException. This is the default.
+     */
+    FAIL_CLOSED,
+    /**
+     * Answer from the range cache, even if the range has expired, and throw a
+     * HaveIBeenPwndException if it is not cached.
+     */
+    FALLBACK_TO_CACHE
+
+}
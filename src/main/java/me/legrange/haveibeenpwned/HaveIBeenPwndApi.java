@@ -2,24 +2,62 @@ package me.legrange.haveibeenpwned;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.net.Proxy;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
-import org.apache.commons.codec.digest.DigestUtils;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
-import retrofit2.converter.scalars.ScalarsConverterFactory;
 
 /**
  * API to access https://haveibeenpwned.com/.
@@ -31,40 +69,163 @@ import retrofit2.converter.scalars.ScalarsConverterFactory;
  */
 public class HaveIBeenPwndApi {
 
+    private static final int SHA1_LENGTH = PasswordHasher.SHA1_LENGTH;
+    private static final int NTLM_LENGTH = PasswordHasher.NTLM_LENGTH;
+    private static final int AUDIT_BATCH = 10_000;
+    private static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BACKOFF = TimeUnit.MINUTES.toNanos(1);
+    private static final Duration DEFAULT_CATALOGUE_REFRESH = Duration.ofHours(1);
+    private static final int VIRTUAL_SCREEN_CONCURRENCY = 10_000;
+    private static final Type BREACH_LIST = new TypeToken<List<Breach>>() {
+    }.getType();
+    private static final Type PASTE_LIST = new TypeToken<List<Paste>>() {
+    }.getType();
+    private static final Object MISS = new Object();
+    private static ScheduledExecutorService retryScheduler;
+
     private final String apiKey;
     private final HaveIBeenPwndService hibpService;
     private final PwnedPasswordsService ppwService;
     private final boolean addPadding;
+    private final PwnedPasswordsCorpus corpus;
+    private final RangeCache rangeCache;
+    private final PwnedPasswordsFilter prefilter;
+    private final int batchConcurrency;
+    private final RateLimiter rateLimiter;
+    private final int maxRetries;
+    private final BreachCatalogue catalogue;
+    private final BreachCatalogue detailsCatalogue;
+    private final RequestCoalescer rangeCoalescer;
+    private final RequestCoalescer accountCoalescer;
+    private final Instrumentation instrumentation;
+    private final JsonStreamDecoder<Breach> breachDecoder;
+    private final JsonStreamDecoder<Paste> pasteDecoder;
+    private final PersistentCache persistentCache;
+    private final Gson cacheGson;
+    private final boolean virtualThreads;
+    private final FailurePolicy failurePolicy;
+    private final long hedgeDelay;
+    private final LatencyWindow rangeLatency = new LatencyWindow();
+    private final LongAdder rangeHedges = new LongAdder();
+    private final PrefixPopularity prefixPopularity;
+    private final CompletableFuture<Void> prewarming;
 
     /**
-     * Create a new instance of the API with the given user agent.
+     * Create a new instance of the API configured by the given builder.
      */
-     HaveIBeenPwndApi(String hibpUrl, String ppwUrl, boolean addPadding, String userAgent, String apiKey, Proxy proxy) {
-         OkHttpClient.Builder builder = new OkHttpClient.Builder().addInterceptor(chain -> {
-             Request request = chain.request().newBuilder().addHeader("User-Agent", userAgent).build();
-             return chain.proceed(request);
-         });
-         if (proxy != null) {
-             builder = builder.proxy(proxy);
-         }
-         OkHttpClient client = builder.build();
-         Gson gson = new GsonBuilder()
+    HaveIBeenPwndApi(HaveIBeenPwndBuilder config) {
+        OkHttpClient.Builder builder = config.httpClient == null ? new OkHttpClient.Builder() : config.httpClient.newBuilder();
+        builder = builder.addInterceptor(chain -> {
+            Request request = chain.request().newBuilder().addHeader("User-Agent", config.userAgent).build();
+            return chain.proceed(request);
+        });
+        if (config.proxy != null) {
+            builder = builder.proxy(config.proxy);
+        }
+        InstrumentationInterceptor interceptor = new InstrumentationInterceptor(config.instrumentation);
+        if (config.instrumentation != Instrumentation.NONE) {
+            builder = builder.addInterceptor(interceptor)
+                    .addNetworkInterceptor(interceptor.networkInterceptor());
+        }
+        String pwndPasswordsUrl = config.pwndPasswordsUrl;
+        if (config.shardRouter != null) {
+            pwndPasswordsUrl = config.shardRouter.getNodes().get(0);
+            builder = builder.addInterceptor(new ShardingInterceptor(config.shardRouter, HttpUrl.get(pwndPasswordsUrl).host()));
+        }
+        Map<String, CircuitBreaker> breakers = new HashMap<>();
+        if (config.passwordsCircuitBreaker != null && config.shardRouter == null) {
+            breakers.put(HttpUrl.get(pwndPasswordsUrl).host(), config.passwordsCircuitBreaker);
+        }
+        if (config.breachesCircuitBreaker != null) {
+            breakers.put(HttpUrl.get(config.haveIbeenPwndUrl).host(), config.breachesCircuitBreaker);
+        }
+        if (!breakers.isEmpty()) {
+            builder = builder.addInterceptor(new CircuitBreakerInterceptor(breakers));
+        }
+        if (config.httpClient == null) {
+            Dispatcher dispatcher = config.virtualThreads && VirtualThreads.isAvailable()
+                    ? new Dispatcher(VirtualThreads.newVirtualThreadPerTaskExecutor())
+                    : new Dispatcher();
+            dispatcher.setMaxRequests(config.maxRequests);
+            dispatcher.setMaxRequestsPerHost(config.maxRequestsPerHost);
+            builder = builder.dispatcher(dispatcher);
+            this.batchConcurrency = config.maxRequestsPerHost;
+        } else {
+            this.batchConcurrency = config.httpClient.dispatcher().getMaxRequestsPerHost();
+        }
+        if (config.connectionPool != null) {
+            builder = builder.connectionPool(config.connectionPool);
+        }
+        if (config.connectTimeout != null) {
+            builder = builder.connectTimeout(config.connectTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (config.readTimeout != null) {
+            builder = builder.readTimeout(config.readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (config.callTimeout != null) {
+            builder = builder.callTimeout(config.callTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (!config.http2) {
+            builder = builder.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+        }
+        OkHttpClient client = builder.build();
+        Gson gson = new GsonBuilder()
                 .setLenient()
                 .create();
         Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(hibpUrl)
-                .addConverterFactory(GsonConverterFactory.create(gson))
+                .baseUrl(config.haveIbeenPwndUrl)
+                .addConverterFactory(interceptor.converterFactory(GsonConverterFactory.create(gson)))
                 .client(client)
                 .build();
         hibpService = retrofit.create(HaveIBeenPwndService.class);
+        breachDecoder = new JsonStreamDecoder<>(gson, Breach.class);
+        pasteDecoder = new JsonStreamDecoder<>(gson, Paste.class);
         retrofit = new Retrofit.Builder()
-                .baseUrl(ppwUrl)
-                .addConverterFactory(ScalarsConverterFactory.create())
+                .baseUrl(pwndPasswordsUrl)
                 .client(client)
                 .build();
         ppwService = retrofit.create(PwnedPasswordsService.class);
-        this.addPadding = addPadding;
-        this.apiKey = apiKey;
+        this.addPadding = config.addPadding;
+        this.apiKey = config.apiKey;
+        this.corpus = config.corpus;
+        this.rangeCache = config.rangeCache;
+        this.prefilter = config.prefilter;
+        this.rateLimiter = config.rateLimiter;
+        this.maxRetries = config.maxRetries;
+        this.instrumentation = config.instrumentation;
+        this.persistentCache = config.persistentCache;
+        this.virtualThreads = config.virtualThreads && VirtualThreads.isAvailable();
+        this.failurePolicy = config.failurePolicy;
+        this.hedgeDelay = config.hedgeDelay == null ? -1 : config.hedgeDelay.toNanos();
+        this.cacheGson = new GsonBuilder()
+                .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+                .create();
+        this.rangeCoalescer = config.coalesceRequests ? new RequestCoalescer() : null;
+        this.accountCoalescer = config.coalesceRequests ? new RequestCoalescer() : null;
+        BreachCatalogue.Loader loader = new BreachCatalogue.Loader() {
+            @Override
+            public List<Breach> loadBreaches() throws HaveIBeenPwndException {
+                return callService(hibpService.getBreaches(null)).orElse(Collections.emptyList());
+            }
+
+            @Override
+            public List<String> loadDataClasses() throws HaveIBeenPwndException {
+                return callService(hibpService.getDataClasses()).orElse(Collections.emptyList());
+            }
+        };
+        this.catalogue = config.catalogueRefresh == null ? null : new BreachCatalogue(loader, config.catalogueRefresh);
+        this.detailsCatalogue = catalogue != null ? catalogue : new BreachCatalogue(loader, DEFAULT_CATALOGUE_REFRESH);
+        this.prefixPopularity = config.prefixPopularity;
+        if (prefixPopularity != null && config.prewarmRanges > 0 && rangeCache != null && corpus == null) {
+            List<String> hottest = prefixPopularity.getHottest(config.prewarmRanges);
+            prewarming = CompletableFuture.runAsync(() -> prewarm(hottest), runnable -> {
+                Thread thread = new Thread(runnable, "hibp-range-prewarm");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        } else {
+            prewarming = CompletableFuture.completedFuture(null);
+        }
     }
 
     /**
@@ -95,9 +256,48 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if there is an error.
      */
     public List<Breach> getAllBreachesForAccount(String account, String domain, boolean truncateResponse, boolean includeUnveridied) throws HaveIBeenPwndException {
-        return callService(hibpService.getAllBreachesForAccount(apiKey, account, includeUnveridied, truncateResponse, domain)).orElse(Collections.EMPTY_LIST);
+        if (accountCoalescer != null) {
+            return accountCoalescer.load(accountKey("breaches", account, domain, truncateResponse, includeUnveridied),
+                    () -> fetchBreachesForAccount(account, domain, truncateResponse, includeUnveridied));
+        }
+        return fetchBreachesForAccount(account, domain, truncateResponse, includeUnveridied);
+    }
+
+
+    /**
+     * Get the names of the breaches an account has been involved in. Only the
+     * names are requested from the API, which makes this a lot cheaper than
+     * getting the full breaches.
+     *
+     * @param account The account to search for
+     * @return The names of the breaches
+     * @throws HaveIBeenPwndException Thrown if there is an error.
+     */
+    public List<String> getBreachNamesForAccount(String account) throws HaveIBeenPwndException {
+        return names(getAllBreachesForAccount(account, null, true, false));
     }
 
+    /**
+     * Get the details of breaches by their names, for example those returned
+     * by getBreachNamesForAccount(). The details come from the breach
+     * catalogue, which is loaded once and kept up to date in the background.
+     *
+     * @param names The names of the breaches
+     * @return The breaches
+     * @throws HaveIBeenPwndException Thrown if there is an error.
+     */
+    public List<Breach> getBreachDetails(List<String> names) throws HaveIBeenPwndException {
+        List<Breach> res = new ArrayList<>(names.size());
+        for (String name : names) {
+            Optional<Breach> breach = detailsCatalogue.getByName(name);
+            if (!breach.isPresent()) {
+                // the breach may be newer than the catalogue
+                breach = callService(hibpService.getBreach(name));
+            }
+            breach.ifPresent(res::add);
+        }
+        return res;
+    }
 
     /**
      * Get all the breaches in the system.
@@ -117,6 +317,9 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if there is an error.
      */
     public List<Breach> getAllBreachedSites(String domain) throws HaveIBeenPwndException {
+        if (catalogue != null) {
+            return domain == null ? catalogue.getAll() : catalogue.getByDomain(domain);
+        }
         return callService(hibpService.getBreaches(domain)).orElse(Collections.EMPTY_LIST);
     }
 
@@ -130,6 +333,13 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if there is an error.
      */
     public Optional<Breach> getBreachByName(String breach) throws HaveIBeenPwndException {
+        if (catalogue != null) {
+            return catalogue.getByName(breach);
+        }
+        if (persistentCache != null) {
+            return Optional.ofNullable(cached("breach", breach.toLowerCase(Locale.ROOT), Breach.class,
+                    () -> callService(hibpService.getBreach(breach)).orElse(null)));
+        }
         Call<Breach> call = hibpService.getBreach(breach);
         try {
             Response<Breach> res = call.execute();
@@ -146,6 +356,9 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if there is an error
      */
     public List<String> getAllDataClasses() throws HaveIBeenPwndException {
+        if (catalogue != null) {
+            return catalogue.getDataClasses();
+        }
         return callService(hibpService.getDataClasses()).orElse(Collections.EMPTY_LIST);
     }
 
@@ -159,7 +372,55 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if an error occurs
      */
     public List<Paste> getAllPastesForAccount(String account) throws HaveIBeenPwndException {
-        return callService(hibpService.getAllPastesForAccount(apiKey, account)).orElse(Collections.EMPTY_LIST);
+        if (accountCoalescer != null) {
+            return accountCoalescer.load(accountKey("pastes", account), () -> fetchPastesForAccount(account));
+        }
+        return fetchPastesForAccount(account);
+    }
+
+    /**
+     * Stream all the breaches in the system, or for a domain, decoding them
+     * one at a time. Only the requested fields are decoded, which saves
+     * memory and time if, for example, the descriptions are not needed.
+     *
+     * @param domain  The domain to query, or null for all breaches
+     * @param fields  The fields to decode, or null for all fields
+     * @param visitor Receives each breach as it is decoded
+     * @throws HaveIBeenPwndException Thrown if there is an error.
+     */
+    public void forEachBreachedSite(String domain, Set<BreachField> fields, Consumer<? super Breach> visitor) throws HaveIBeenPwndException {
+        decode("breaches", breachDecoder, callService(hibpService.streamBreaches(domain)), jsonNames(fields, BreachField::getJsonName), visitor);
+    }
+
+    /**
+     * Stream the breaches for an account, decoding them one at a time with
+     * only the requested fields. The API only sends the full breaches if a
+     * field other than the name is requested.
+     *
+     * @param account The account to search for
+     * @param fields  The fields to decode, or null for all fields
+     * @param visitor Receives each breach as it is decoded
+     * @throws HaveIBeenPwndException Thrown if there is an error.
+     */
+    public void forEachBreachForAccount(String account, Set<BreachField> fields, Consumer<? super Breach> visitor) throws HaveIBeenPwndException {
+        boolean truncateResponse = fields != null && fields.stream().allMatch(field -> field == BreachField.NAME);
+        decode("breachedaccount", breachDecoder,
+                callService(hibpService.streamBreachesForAccount(apiKey, account, false, truncateResponse, null), true),
+                jsonNames(fields, BreachField::getJsonName), visitor);
+    }
+
+    /**
+     * Stream the pastes for an account, decoding them one at a time with
+     * only the requested fields.
+     *
+     * @param account The account to search for
+     * @param fields  The fields to decode, or null for all fields
+     * @param visitor Receives each paste as it is decoded
+     * @throws HaveIBeenPwndException Thrown if there is an error.
+     */
+    public void forEachPasteForAccount(String account, Set<PasteField> fields, Consumer<? super Paste> visitor) throws HaveIBeenPwndException {
+        decode("pasteaccount", pasteDecoder, callService(hibpService.streamPastesForAccount(apiKey, account), true),
+                jsonNames(fields, PasteField::getJsonName), visitor);
     }
 
     /**
@@ -172,16 +433,124 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if an error occurs
      */
     public List<PwnedHash> searchByRange(String hash5) throws HaveIBeenPwndException {
-        String res = callService(ppwService.searchByRange(hash5, addPadding)).orElse("");
-        if (!res.isEmpty()) {
-            Stream<String> lines = Arrays.asList(res.split("\n")).stream();
-            return lines.map(line -> line.replace("\r", "").split(":"))
-                    .map(parts -> new PwnedHash(parts[0], Integer.parseInt(parts[1])))
-                    .collect(Collectors.toList());
+        if (corpus != null) {
+            return corpus.searchByRange(hash5);
         }
-        return Collections.EMPTY_LIST;
+        recordLookup(hash5);
+        return getRange(hash5).toList();
+    }
+
+    /**
+     * Get the statistics for shared password range requests.
+     *
+     * @return The coalescer, or null if request coalescing is not enabled
+     */
+    public RequestCoalescer getRangeCoalescer() {
+        return rangeCoalescer;
+    }
+
+    /**
+     * Get the statistics for shared account requests.
+     *
+     * @return The coalescer, or null if request coalescing is not enabled
+     */
+    public RequestCoalescer getAccountCoalescer() {
+        return accountCoalescer;
+    }
+
+    /**
+     * Get the breach catalogue used to answer breach and data class queries.
+     *
+     * @return The catalogue, or null if breaches are always fetched from the
+     * API
+     */
+    public BreachCatalogue getBreachCatalogue() {
+        return catalogue;
+    }
+
+    /**
+     * Get the tracker that counts password range lookups.
+     *
+     * @return The tracker, or null if lookups are not counted
+     */
+    public PrefixPopularity getPrefixPopularity() {
+        return prefixPopularity;
+    }
+
+    /**
+     * Get the loading of the most popular ranges into the range cache, which
+     * starts when the API is built. Wait for it before taking traffic, for
+     * example in a readiness check.
+     *
+     * @return A future that completes when the ranges are loaded. It
+     * completes at once if no ranges are pre-warmed.
+     */
+    public CompletableFuture<Void> getPrewarming() {
+        return prewarming;
+    }
+
+    /**
+     * Get the rate limiter used for calls that are limited by the API key.
+     *
+     * @return The rate limiter, or null if calls are not rate limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Check if blocking work started by the API runs on virtual threads.
+     *
+     * @return True if virtual threads were asked for and the JVM supports them
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Get the number of second requests sent for password ranges that were
+     * slow or failed.
+     *
+     * @return The number of hedged requests
+     */
+    public long getHedgedRangeRequests() {
+        return rangeHedges.sum();
+    }
+
+    /**
+     * Create a screener that looks up a large list of accounts and writes the
+     * results to a file, resuming where it stopped if it is run again.
+     *
+     * @param output The file the results are written to
+     * @return The screener
+     */
+    public AccountScreener createAccountScreener(Path output) {
+        return new AccountScreener(this, output, screenConcurrency(), virtualThreads);
+    }
+
+    /**
+     * Create a downloader that fetches all the Pwned Passwords ranges to build
+     * a local corpus.
+     *
+     * @param workDir The directory in which downloaded ranges are kept
+     * @return The downloader
+     */
+    public PwnedPasswordsDownloader createCorpusDownloader(Path workDir) {
+        return new PwnedPasswordsDownloader(ppwService, workDir, false);
     }
 
+    /**
+     * Create a downloader that fetches all the Pwned Passwords ranges in NTLM
+     * mode to build a local corpus of NT hashes, for example for an NTLM
+     * range file served by a RangeServer.
+     *
+     * @param workDir The directory in which downloaded ranges are kept. Use a
+     *                different directory than for SHA1 ranges.
+     * @return The downloader
+     */
+    public PwnedPasswordsDownloader createNtlmCorpusDownloader(Path workDir) {
+        return new PwnedPasswordsDownloader(ppwService, workDir, true);
+    }
 
     /**
      * Check if a supplied account is pwned.
@@ -191,7 +560,7 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if an error occurs
      */
     public boolean isAccountPwned(String account) throws HaveIBeenPwndException {
-        return !getAllBreachesForAccount(account).isEmpty();
+        return !getBreachNamesForAccount(account).isEmpty();
     }
 
     /**
@@ -209,6 +578,18 @@ public class HaveIBeenPwndApi {
         return isHashPasswordPwned(makeHash(password));
     }
 
+    /**
+     * Check if a supplied password is pwned. The password is hashed without
+     * being copied into a String, so the caller can clear it afterwards.
+     *
+     * @param password The password to test
+     * @return True if it is pwend
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public boolean isPlainPasswordPwned(char[] password) throws HaveIBeenPwndException {
+        return getPwnedCount(makeBinaryHash(password)) > 0;
+    }
+
     /**
      * Check if a supplied hashed password is pwned.
      *
@@ -217,56 +598,1393 @@ public class HaveIBeenPwndApi {
      * @throws HaveIBeenPwndException Thrown if something goes wrong.
      */
     public boolean isHashPasswordPwned(String pwHash) throws HaveIBeenPwndException {
+        return getPwnedCount(pwHash) > 0;
+    }
+
+    /**
+     * Check if a supplied hashed password has been seen at least a number of
+     * times.
+     *
+     * @param pwHash   The password to test, encoded as a SHA1 hash.
+     * @param minCount The number of times the password must have been seen
+     * @return True if it has been seen at least minCount times
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public boolean isHashPasswordPwned(String pwHash, int minCount) throws HaveIBeenPwndException {
+        return getPwnedCount(pwHash) >= Math.max(1, minCount);
+    }
+
+    /**
+     * Get the number of times a hashed password has been seen in breaches.
+     *
+     * @param pwHash The password, encoded as a SHA1 hash.
+     * @return The count, or 0 if it is not pwned
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public int getPwnedCount(String pwHash) throws HaveIBeenPwndException {
+        if (prefilter != null && !prefilter.mightContain(pwHash)) {
+            return 0;
+        }
+        if (corpus != null) {
+            return corpus.getCount(pwHash);
+        }
         String hash5 = pwHash.substring(0, 5);
-        List<PwnedHash> hashes = searchByRange(hash5).stream()
-                .filter(hash -> hash.getCount() > 0)
-                .collect(Collectors.toList());
-        return hashes.stream().anyMatch(hash -> (hash5 + hash.getHash()).equals(pwHash));
+        recordLookup(hash5);
+        try {
+            if (rangeCache != null || rangeCoalescer != null) {
+                return getRange(hash5).getCount(pwHash);
+            }
+            return findCount(pwHash, SHA1_LENGTH, callRange(ppwService.searchByRange(hash5, addPadding)));
+        } catch (HaveIBeenPwndException ex) {
+            return fallbackRange(hash5, SHA1_LENGTH, ex).getCount(pwHash);
+        }
     }
 
     /**
-     * Make a SHA1 hash for sending to the Pwned Passwords API.
+     * Check if a supplied binary hashed password is pwned.
      *
-     * @param password The password
-     * @return The hash
+     * @param pwHash The password to test, as a 20 byte SHA1 hash.
+     * @return True if it is pwend
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
      */
-    public static String makeHash(String password) {
-        return DigestUtils.sha1Hex(password).toUpperCase();
+    public boolean isHashPasswordPwned(byte[] pwHash) throws HaveIBeenPwndException {
+        return getPwnedCount(pwHash) > 0;
     }
 
     /**
-     * Call a service and unpack it's result or errors
+     * Get the number of times a binary hashed password has been seen in
+     * breaches.
      *
-     * @param <T>  The type of service result
-     * @param call The service to call
-     * @return The result
+     * @param pwHash The password, as a 20 byte SHA1 hash.
+     * @return The count, or 0 if it is not pwned
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public int getPwnedCount(byte[] pwHash) throws HaveIBeenPwndException {
+        if (prefilter != null && !prefilter.mightContain(pwHash)) {
+            return 0;
+        }
+        if (corpus != null) {
+            return corpus.getCount(pwHash);
+        }
+        String hash5 = Hex.prefix(Hex.prefix(pwHash));
+        recordLookup(hash5);
+        try {
+            if (rangeCache != null || rangeCoalescer != null) {
+                return getRange(hash5).getCount(pwHash);
+            }
+            return findCount(pwHash, SHA1_LENGTH, callRange(ppwService.searchByRange(hash5, addPadding)));
+        } catch (HaveIBeenPwndException ex) {
+            return fallbackRange(hash5, SHA1_LENGTH, ex).getCount(pwHash);
+        }
+    }
+
+    /**
+     * Check if an NT password hash is pwned.
+     *
+     * @param ntHash The NT hash of the password, hex encoded
+     * @return True if it is pwned
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public boolean isNtlmHashPwned(String ntHash) throws HaveIBeenPwndException {
+        return getNtlmPwnedCount(ntHash) > 0;
+    }
+
+    /**
+     * Get the number of times an NT password hash has been seen in breaches.
+     * NT hashes are looked up in the NTLM mode of the range API. The local
+     * corpus, pre-filter and range cache only hold SHA1 hashes, so they are
+     * not used.
+     *
+     * @param ntHash The NT hash of the password, hex encoded
+     * @return The count, or 0 if it is not pwned
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public int getNtlmPwnedCount(String ntHash) throws HaveIBeenPwndException {
+        if (ntHash.length() != NTLM_LENGTH * 2) {
+            return 0;
+        }
+        String hash5 = ntHash.substring(0, 5);
+        try {
+            return findCount(ntHash, NTLM_LENGTH, callRange(ppwService.searchByRangeNtlm(hash5, addPadding)));
+        } catch (HaveIBeenPwndException ex) {
+            return fallbackRange(hash5, NTLM_LENGTH, ex).getCount(ntHash);
+        }
+    }
+
+    /**
+     * Get the number of times a binary NT password hash has been seen in
+     * breaches.
+     *
+     * @param ntHash The 16 byte NT hash of the password
+     * @return The count, or 0 if it is not pwned
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     */
+    public int getNtlmPwnedCount(byte[] ntHash) throws HaveIBeenPwndException {
+        if (ntHash.length != NTLM_LENGTH) {
+            return 0;
+        }
+        String hash5 = Hex.prefix(Hex.prefix(ntHash));
+        try {
+            return findCount(ntHash, NTLM_LENGTH, callRange(ppwService.searchByRangeNtlm(hash5, addPadding)));
+        } catch (HaveIBeenPwndException ex) {
+            return fallbackRange(hash5, NTLM_LENGTH, ex).getCount(ntHash);
+        }
+    }
+
+    /**
+     * Search NT password hashes by range.
+     *
+     * @param hash5 The first 5 digits of the NT hash
+     * @return The list of hashes partially matching the given hash
      * @throws HaveIBeenPwndException Thrown if an error occurs
      */
-    private <T> Optional<T> callService(Call<T> call) throws HaveIBeenPwndException {
+    public List<PwnedHash> searchByRangeNtlm(String hash5) throws HaveIBeenPwndException {
+        return toRange(hash5, NTLM_LENGTH, callRange(ppwService.searchByRangeNtlm(hash5, addPadding))).toList();
+    }
+
+    /**
+     * Check many hashed passwords at once. The hashes are grouped by their
+     * first 5 digits, and each range is fetched only once no matter how many
+     * of the hashes fall in it. Ranges are fetched concurrently, up to the
+     * maximum requests per host set on the builder.
+     *
+     * @param pwHashes The passwords to test, encoded as SHA1 hashes.
+     * @return The number of times each hash has been seen, 0 if it is not
+     * pwned
+     * @throws HaveIBeenPwndException Thrown if something goes wrong.
+     * @throws IllegalArgumentException Thrown if one of the hashes is not 40
+     *                                  hex digits
+     */
+    public Map<String, Integer> checkHashes(Collection<String> pwHashes) throws HaveIBeenPwndException {
+        for (String pwHash : pwHashes) {
+            if (!Hex.isHash(pwHash, SHA1_LENGTH)) {
+                throw new IllegalArgumentException("Password hashes must be SHA1 hashes of 40 hex digits");
+            }
+        }
+        Map<String, Integer> res = new ConcurrentHashMap<>();
+        Map<String, List<String>> byPrefix = new HashMap<>();
+        for (String pwHash : pwHashes) {
+            if (prefilter != null && !prefilter.mightContain(pwHash)) {
+                res.put(pwHash, 0);
+            } else if (corpus != null) {
+                res.put(pwHash, corpus.getCount(pwHash));
+            } else {
+                byPrefix.computeIfAbsent(pwHash.substring(0, 5).toUpperCase(), k -> new ArrayList<>()).add(pwHash);
+            }
+        }
+        byPrefix.keySet().forEach(this::recordLookup);
+        forEachRange(byPrefix.keySet(), SHA1_LENGTH, this::getRangeAsync, range -> {
+            for (String pwHash : byPrefix.get(range.getPrefix())) {
+                res.put(pwHash, range.getCount(pwHash));
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Check the NT hashes in an Active Directory export against Pwned
+     * Passwords. Each line of the export is either a hash, an account and a
+     * hash separated by a colon, or a line in the
+     * account:rid:lmhash:nthash::: format written by secretsdump and similar
+     * tools. Other lines are skipped.
+     * <p>
+     * The export is read in batches. The hashes in a batch are grouped by
+     * their first 5 digits and each range is fetched once, concurrently, up
+     * to the maximum requests per host. Results are passed to the visitor in
+     * the order of the export, as each batch completes.
+     *
+     * @param export  The export file
+     * @param visitor Receives the result for each account
+     * @throws HaveIBeenPwndException Thrown if the export cannot be read or a
+     *                                range cannot be fetched
+     */
+    public void auditNtlmExport(Path export, Consumer<? super NtlmAuditResult> visitor) throws HaveIBeenPwndException {
+        try (BufferedReader in = Files.newBufferedReader(export, StandardCharsets.UTF_8)) {
+            auditNtlmExport(in, visitor);
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Check the NT hashes in an Active Directory export read from a reader.
+     * See auditNtlmExport(Path, Consumer) for the format.
+     *
+     * @param export  The export
+     * @param visitor Receives the result for each account
+     * @throws HaveIBeenPwndException Thrown if the export cannot be read or a
+     *                                range cannot be fetched
+     */
+    public void auditNtlmExport(BufferedReader export, Consumer<? super NtlmAuditResult> visitor) throws HaveIBeenPwndException {
+        List<String[]> batch = new ArrayList<>(AUDIT_BATCH);
         try {
-            Response<T> res = call.execute();
-            if (!res.isSuccessful()) {
-                switch (res.code()) {
-                    case 400:
-                        throw new HaveIBeenPwndException("Bad request — the account does not comply with an acceptable format (i.e. it's an empty string)");
-                    case 401:
-                        throw new HaveIBeenPwndException("Unauthorised — the API key provided was not valid");
-                    case 403:
-                        throw new HaveIBeenPwndException("Forbidden — no user agent has been specified in the request");
-                    case 404:
-                        break;
-                    case 429:
-                        throw new HaveIBeenPwndException("Too many requests — the rate limit has been exceeded");
-                    case 503:
-                        throw new HaveIBeenPwndException("Service unavailable - " + res.errorBody().string());
-                    default:
-                        throw new HaveIBeenPwndException("Unknown error code " + res.code());
+            String line;
+            while ((line = export.readLine()) != null) {
+                String[] entry = parseNtlmExportLine(line);
+                if (entry != null) {
+                    batch.add(entry);
+                    if (batch.size() == AUDIT_BATCH) {
+                        auditNtlmBatch(batch, visitor);
+                        batch.clear();
+                    }
                 }
             }
-            return Optional.ofNullable(res.body());
         } catch (IOException ex) {
             throw new HaveIBeenPwndException(ex.getMessage(), ex);
         }
+        auditNtlmBatch(batch, visitor);
+    }
+
+    /**
+     * Fetch ranges concurrently, up to the maximum requests per host, and
+     * pass each to the handler as it arrives. The handler is called from
+     * several threads at once. An exception thrown by the handler stops the
+     * fetching and is thrown from here.
+     *
+     * @param prefixes   The 5 digit prefixes of the ranges
+     * @param hashLength The length of the hashes in bytes
+     * @param fetch      Fetches a range
+     * @param handler    Receives the ranges
+     * @throws HaveIBeenPwndException Thrown if a range cannot be fetched
+     */
+    private void forEachRange(Collection<String> prefixes, int hashLength, Function<String, CompletableFuture<PwnedRange>> fetch,
+            Consumer<PwnedRange> handler) throws HaveIBeenPwndException {
+        Semaphore permits = new Semaphore(batchConcurrency);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        try {
+            for (String hash5 : prefixes) {
+                permits.acquire();
+                if (error.get() != null) {
+                    permits.release();
+                    break;
+                }
+                withFallback(fetch.apply(hash5), hash5, hashLength, range -> range).whenComplete((range, ex) -> {
+                    try {
+                        if (ex != null) {
+                            error.compareAndSet(null, ex);
+                        } else {
+                            handler.accept(range);
+                        }
+                    } catch (Throwable handlerEx) {
+                        error.compareAndSet(null, handlerEx);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            permits.acquire(batchConcurrency);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new HaveIBeenPwndException("Interrupted while checking hashes", ex);
+        }
+        rethrow(error.get());
+    }
+
+    /**
+     * Check a batch of account and NT hash pairs read from an export.
+     */
+    private void auditNtlmBatch(List<String[]> batch, Consumer<? super NtlmAuditResult> visitor) throws HaveIBeenPwndException {
+        Set<String> prefixes = new HashSet<>();
+        for (String[] entry : batch) {
+            prefixes.add(entry[1].substring(0, 5));
+        }
+        Map<String, PwnedRange> ranges = new ConcurrentHashMap<>();
+        forEachRange(prefixes, NTLM_LENGTH, this::fetchNtlmRangeAsync, range -> ranges.put(range.getPrefix(), range));
+        for (String[] entry : batch) {
+            String ntHash = entry[1];
+            visitor.accept(new NtlmAuditResult(entry[0], ntHash, ranges.get(ntHash.substring(0, 5)).getCount(ntHash)));
+        }
+    }
+
+    /**
+     * Read the account and NT hash from a line of an Active Directory export.
+     *
+     * @return The account (or null) and the upper case hash, or null if the
+     * line has no NT hash
+     */
+    private static String[] parseNtlmExportLine(String line) {
+        String[] fields = line.trim().split(":");
+        String account;
+        String ntHash;
+        if (fields.length >= 4) {
+            account = fields[0];
+            ntHash = fields[3];
+        } else if (fields.length == 2) {
+            account = fields[0];
+            ntHash = fields[1];
+        } else if (fields.length == 1) {
+            account = null;
+            ntHash = fields[0];
+        } else {
+            return null;
+        }
+        if (ntHash.length() != NTLM_LENGTH * 2) {
+            return null;
+        }
+        for (int i = 0; i < ntHash.length(); ++i) {
+            if (Character.digit(ntHash.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        return new String[]{account, ntHash.toUpperCase(Locale.ROOT)};
+    }
+
+    /**
+     * Screen many accounts for breaches. Each account is looked up with a
+     * blocking call on its own thread, so that throughput is limited by the
+     * API key quota rather than by threads.
+     * <p>
+     * Accounts are trimmed and lower cased, blank lines and lines starting
+     * with '#' are skipped, and each account is looked up only once, the same
+     * as by an {@link AccountScreener}. Results are keyed by the normalised
+     * account.
+     * <p>
+     * With virtual threads enabled on the builder and a rate limiter set, up
+     * to 10000 lookups wait for the rate limiter at the same time. Otherwise
+     * lookups run on a pool sized to the maximum requests per host.
+     *
+     * @param accounts The accounts to screen
+     * @return The breaches for each account that has been breached
+     * @throws HaveIBeenPwndException Thrown if a lookup fails
+     */
+    public Map<String, List<Breach>> screenAccounts(Stream<String> accounts) throws HaveIBeenPwndException {
+        Map<String, List<Breach>> res = new ConcurrentHashMap<>();
+        screenAccounts(accounts, res::put);
+        return res;
+    }
+
+    /**
+     * Screen many accounts for breaches, passing each breached account to the
+     * visitor as soon as it is found. The accounts are read from the stream
+     * as lookups complete, so the stream need not fit in memory. The visitor
+     * is called from several threads at once.
+     *
+     * @param accounts The accounts to screen
+     * @param visitor  Called with each breached account and its breaches
+     * @throws HaveIBeenPwndException Thrown if a lookup fails
+     */
+    public void screenAccounts(Stream<String> accounts, BiConsumer<String, List<Breach>> visitor) throws HaveIBeenPwndException {
+        AccountLookups pipeline = new AccountLookups(this, screenConcurrency(), virtualThreads, false, false);
+        pipeline.run(accounts.iterator(), 0, (id, lines, account, breaches) -> {
+            try {
+                if (breaches != null && !breaches.isEmpty()) {
+                    visitor.accept(account, breaches);
+                }
+            } catch (Throwable ex) {
+                pipeline.fail(ex);
+            } finally {
+                pipeline.release();
+            }
+        });
+        rethrow(pipeline.getError());
+    }
+
+    /**
+     * Get how many accounts are looked up at the same time when screening.
+     */
+    private int screenConcurrency() {
+        return virtualThreads && rateLimiter != null ? VIRTUAL_SCREEN_CONCURRENCY : batchConcurrency;
+    }
+
+    /**
+     * Make a SHA1 hash for sending to the Pwned Passwords API.
+     *
+     * @param password The password
+     * @return The hash
+     */
+    public static String makeHash(String password) {
+        byte[] hash = new byte[SHA1_LENGTH];
+        PasswordHasher.sha1(password.getBytes(StandardCharsets.UTF_8), hash);
+        return PasswordHasher.toHex(hash);
+    }
+
+    /**
+     * Make a SHA1 hash for sending to the Pwned Passwords API.
+     *
+     * @param password The password
+     * @return The hash
+     */
+    public static String makeHash(char[] password) {
+        return PasswordHasher.toHex(makeBinaryHash(password));
+    }
+
+    /**
+     * Make a binary SHA1 hash of a password, without creating any Strings.
+     * The caller can clear the password once it has been hashed.
+     *
+     * @param password The password
+     * @return The 20 byte hash
+     */
+    public static byte[] makeBinaryHash(char[] password) {
+        byte[] hash = new byte[SHA1_LENGTH];
+        PasswordHasher.sha1(password, hash);
+        return hash;
+    }
+
+    /**
+     * Make a binary SHA1 hash of a UTF-8 encoded password.
+     *
+     * @param password The password bytes
+     * @return The 20 byte hash
+     */
+    public static byte[] makeBinaryHash(byte[] password) {
+        byte[] hash = new byte[SHA1_LENGTH];
+        PasswordHasher.sha1(password, hash);
+        return hash;
+    }
+
+    /**
+     * Asynchronous version of getAllBreachesForAccount(String).
+     *
+     * @param account The account to check for breach
+     * @return The breaches for the account
+     */
+    public CompletableFuture<List<Breach>> getAllBreachesForAccountAsync(String account) {
+        return getAllBreachesForAccountAsync(account, null, false, false);
+    }
+
+    /**
+     * Asynchronous version of getAllBreachesForAccount(String, String,
+     * boolean, boolean).
+     *
+     * @param account           The account to search for
+     * @param domain            Filters the result set to only breaches against the domain
+     *                          specified.
+     * @param truncateResponse  Returns only the name of the breach.
+     * @param includeUnveridied Returns breaches that have been flagged as
+     *                          "unverified"
+     * @return The breaches for the account.
+     */
+    public CompletableFuture<List<Breach>> getAllBreachesForAccountAsync(String account, String domain, boolean truncateResponse, boolean includeUnveridied) {
+        if (accountCoalescer != null) {
+            return accountCoalescer.loadAsync(accountKey("breaches", account, domain, truncateResponse, includeUnveridied),
+                    () -> fetchBreachesForAccountAsync(account, domain, truncateResponse, includeUnveridied));
+        }
+        return fetchBreachesForAccountAsync(account, domain, truncateResponse, includeUnveridied);
+    }
+
+    /**
+     * Asynchronous version of getBreachNamesForAccount(String).
+     *
+     * @param account The account to search for
+     * @return The names of the breaches
+     */
+    public CompletableFuture<List<String>> getBreachNamesForAccountAsync(String account) {
+        return getAllBreachesForAccountAsync(account, null, true, false).thenApply(HaveIBeenPwndApi::names);
+    }
+
+    /**
+     * Asynchronous version of getAllBreachedSites().
+     *
+     * @return The breaches
+     */
+    public CompletableFuture<List<Breach>> getAllBreachedSitesAsync() {
+        return getAllBreachedSitesAsync(null);
+    }
+
+    /**
+     * Asynchronous version of getAllBreachedSites(String).
+     *
+     * @param domain The domain to query
+     * @return The breaches
+     */
+    public CompletableFuture<List<Breach>> getAllBreachedSitesAsync(String domain) {
+        if (catalogue != null) {
+            return fromCatalogue(c -> domain == null ? c.getAll() : c.getByDomain(domain));
+        }
+        return callServiceAsync(hibpService.getBreaches(domain))
+                .thenApply(res -> res.orElse(Collections.emptyList()));
+    }
+
+    /**
+     * Asynchronous version of getBreachByName(String).
+     *
+     * @param breach The name of the breach
+     * @return The breach if found
+     */
+    public CompletableFuture<Optional<Breach>> getBreachByNameAsync(String breach) {
+        if (catalogue != null) {
+            return fromCatalogue(c -> c.getByName(breach));
+        }
+        if (persistentCache != null) {
+            return cachedAsync("breach", breach.toLowerCase(Locale.ROOT), Breach.class,
+                    () -> callServiceAsync(hibpService.getBreach(breach)).thenApply(res -> res.orElse(null)))
+                    .thenApply(Optional::ofNullable);
+        }
+        return callServiceAsync(hibpService.getBreach(breach));
+    }
+
+    /**
+     * Asynchronous version of getAllDataClasses().
+     *
+     * @return All the data classes
+     */
+    public CompletableFuture<List<String>> getAllDataClassesAsync() {
+        if (catalogue != null) {
+            return fromCatalogue(BreachCatalogue::getDataClasses);
+        }
+        return callServiceAsync(hibpService.getDataClasses())
+                .thenApply(res -> res.orElse(Collections.emptyList()));
+    }
+
+    /**
+     * Asynchronous version of getAllPastesForAccount(String).
+     *
+     * @param account The account for which to get the pastes.
+     * @return The pastes
+     */
+    public CompletableFuture<List<Paste>> getAllPastesForAccountAsync(String account) {
+        if (accountCoalescer != null) {
+            return accountCoalescer.loadAsync(accountKey("pastes", account), () -> fetchPastesForAccountAsync(account));
+        }
+        return fetchPastesForAccountAsync(account);
+    }
+
+    /**
+     * Asynchronous version of searchByRange(String).
+     *
+     * @param hash5 The first 5 digits of the sha1 hash
+     * @return The list of hashes partially matching the given hash
+     */
+    public CompletableFuture<List<PwnedHash>> searchByRangeAsync(String hash5) {
+        if (corpus != null) {
+            return CompletableFuture.completedFuture(corpus.searchByRange(hash5));
+        }
+        recordLookup(hash5);
+        return getRangeAsync(hash5).thenApply(PwnedRange::toList);
+    }
+
+    /**
+     * Asynchronous version of isAccountPwned(String).
+     *
+     * @param account The account to check
+     * @return True if the account has been pwned.
+     */
+    public CompletableFuture<Boolean> isAccountPwnedAsync(String account) {
+        return getBreachNamesForAccountAsync(account).thenApply(names -> !names.isEmpty());
+    }
+
+    /**
+     * Asynchronous version of isPlainPasswordPwned(String).
+     *
+     * @param password The password to test
+     * @return True if it is pwend
+     */
+    public CompletableFuture<Boolean> isPlainPasswordPwnedAsync(String password) {
+        return isHashPasswordPwnedAsync(makeHash(password));
+    }
+
+    /**
+     * Asynchronous version of isHashPasswordPwned(String).
+     *
+     * @param pwHash The password to test, encoded as a SHA1 hash.
+     * @return True if it is pwend
+     */
+    public CompletableFuture<Boolean> isHashPasswordPwnedAsync(String pwHash) {
+        return getPwnedCountAsync(pwHash).thenApply(count -> count > 0);
+    }
+
+    /**
+     * Asynchronous version of isHashPasswordPwned(String, int).
+     *
+     * @param pwHash   The password to test, encoded as a SHA1 hash.
+     * @param minCount The number of times the password must have been seen
+     * @return True if it has been seen at least minCount times
+     */
+    public CompletableFuture<Boolean> isHashPasswordPwnedAsync(String pwHash, int minCount) {
+        return getPwnedCountAsync(pwHash).thenApply(count -> count >= Math.max(1, minCount));
+    }
+
+    /**
+     * Asynchronous version of getPwnedCount(String).
+     *
+     * @param pwHash The password, encoded as a SHA1 hash.
+     * @return The count, or 0 if it is not pwned
+     */
+    public CompletableFuture<Integer> getPwnedCountAsync(String pwHash) {
+        if (prefilter != null && !prefilter.mightContain(pwHash)) {
+            return CompletableFuture.completedFuture(0);
+        }
+        if (corpus != null) {
+            return CompletableFuture.completedFuture(corpus.getCount(pwHash));
+        }
+        String hash5 = pwHash.substring(0, 5);
+        recordLookup(hash5);
+        if (rangeCache != null || rangeCoalescer != null) {
+            return withFallback(getRangeAsync(hash5).thenApply(range -> range.getCount(pwHash)),
+                    hash5, SHA1_LENGTH, range -> range.getCount(pwHash));
+        }
+        return withFallback(callRangeAsync(ppwService.searchByRange(hash5, addPadding))
+                        .thenApply(unchecked(body -> findCount(pwHash, SHA1_LENGTH, body))),
+                hash5, SHA1_LENGTH, range -> range.getCount(pwHash));
+    }
+
+    /**
+     * Asynchronous version of getPwnedCount(byte[]).
+     *
+     * @param pwHash The password, as a 20 byte SHA1 hash.
+     * @return The count, or 0 if it is not pwned
+     */
+    public CompletableFuture<Integer> getPwnedCountAsync(byte[] pwHash) {
+        if (prefilter != null && !prefilter.mightContain(pwHash)) {
+            return CompletableFuture.completedFuture(0);
+        }
+        if (corpus != null) {
+            return CompletableFuture.completedFuture(corpus.getCount(pwHash));
+        }
+        String hash5 = Hex.prefix(Hex.prefix(pwHash));
+        recordLookup(hash5);
+        if (rangeCache != null || rangeCoalescer != null) {
+            return withFallback(getRangeAsync(hash5).thenApply(range -> range.getCount(pwHash)),
+                    hash5, SHA1_LENGTH, range -> range.getCount(pwHash));
+        }
+        return withFallback(callRangeAsync(ppwService.searchByRange(hash5, addPadding))
+                        .thenApply(unchecked(body -> findCount(pwHash, SHA1_LENGTH, body))),
+                hash5, SHA1_LENGTH, range -> range.getCount(pwHash));
+    }
+
+    /**
+     * Make the NT hash of a password, as stored by Windows and looked up in
+     * the NTLM mode of the Pwned Passwords API.
+     *
+     * @param password The password
+     * @return The hash
+     */
+    public static String makeNtlmHash(String password) {
+        return makeNtlmHash(password.toCharArray());
+    }
+
+    /**
+     * Make the NT hash of a password.
+     *
+     * @param password The password
+     * @return The hash
+     */
+    public static String makeNtlmHash(char[] password) {
+        return PasswordHasher.toHex(makeBinaryNtlmHash(password));
+    }
+
+    /**
+     * Make a binary NT hash of a password, without creating any Strings.
+     *
+     * @param password The password
+     * @return The 16 byte hash
+     */
+    public static byte[] makeBinaryNtlmHash(char[] password) {
+        byte[] hash = new byte[NTLM_LENGTH];
+        PasswordHasher.ntlm(password, hash);
+        return hash;
+    }
+
+    /**
+     * Asynchronous version of getNtlmPwnedCount(String).
+     *
+     * @param ntHash The NT hash of the password, hex encoded
+     * @return The count, or 0 if it is not pwned
+     */
+    public CompletableFuture<Integer> getNtlmPwnedCountAsync(String ntHash) {
+        if (ntHash.length() != NTLM_LENGTH * 2) {
+            return CompletableFuture.completedFuture(0);
+        }
+        String hash5 = ntHash.substring(0, 5);
+        return withFallback(callRangeAsync(ppwService.searchByRangeNtlm(hash5, addPadding))
+                        .thenApply(unchecked(body -> findCount(ntHash, NTLM_LENGTH, body))),
+                hash5, NTLM_LENGTH, range -> range.getCount(ntHash));
+    }
+
+    private static List<String> names(List<Breach> breaches) {
+        List<String> names = new ArrayList<>(breaches.size());
+        for (Breach breach : breaches) {
+            names.add(breach.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Answer a query from the breach catalogue. If the catalogue still has to
+     * be loaded, it is loaded on another thread.
+     */
+    private <R> CompletableFuture<R> fromCatalogue(ServiceFunction<BreachCatalogue, R> query) {
+        if (catalogue.isLoaded()) {
+            try {
+                return CompletableFuture.completedFuture(query.apply(catalogue));
+            } catch (HaveIBeenPwndException ex) {
+                CompletableFuture<R> future = new CompletableFuture<>();
+                future.completeExceptionally(ex);
+                return future;
+            }
+        }
+        return CompletableFuture.completedFuture(catalogue).thenApplyAsync(unchecked(query));
+    }
+
+    private void recordLookup(String hash5) {
+        if (prefixPopularity != null) {
+            prefixPopularity.record(hash5);
+        }
+    }
+
+    /**
+     * Load ranges into the range cache, up to the maximum requests per host
+     * at a time. Ranges that cannot be fetched are skipped.
+     */
+    private void prewarm(List<String> prefixes) {
+        Semaphore permits = new Semaphore(batchConcurrency);
+        try {
+            for (String hash5 : prefixes) {
+                permits.acquire();
+                getRangeAsync(hash5).whenComplete((range, ex) -> permits.release());
+            }
+            permits.acquire(batchConcurrency);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get a range, from the cache if possible.
+     *
+     * @param hash5 The first 5 digits of the hash
+     * @return The range
+     * @throws HaveIBeenPwndException Thrown if an error occurs
+     */
+    private PwnedRange getRange(String hash5) throws HaveIBeenPwndException {
+        if (rangeCache != null) {
+            PwnedRange range = rangeCache.get(hash5);
+            instrumentation.onCacheLookup("range", range != null);
+            if (range != null) {
+                return range;
+            }
+        }
+        if (rangeCoalescer != null) {
+            return rangeCoalescer.load(hash5.toUpperCase(), () -> fetchRange(hash5));
+        }
+        return fetchRange(hash5);
+    }
+
+    /**
+     * Get a range asynchronously, from the cache if possible.
+     *
+     * @param hash5 The first 5 digits of the hash
+     * @return The range
+     */
+    private CompletableFuture<PwnedRange> getRangeAsync(String hash5) {
+        if (rangeCache != null) {
+            PwnedRange range = rangeCache.get(hash5);
+            instrumentation.onCacheLookup("range", range != null);
+            if (range != null) {
+                return CompletableFuture.completedFuture(range);
+            }
+        }
+        if (rangeCoalescer != null) {
+            return rangeCoalescer.loadAsync(hash5.toUpperCase(), () -> fetchRangeAsync(hash5));
+        }
+        return fetchRangeAsync(hash5);
+    }
+
+    private PwnedRange fetchRange(String hash5) throws HaveIBeenPwndException {
+        return toRange(hash5, SHA1_LENGTH, callRange(ppwService.searchByRange(hash5, addPadding)));
+    }
+
+    private CompletableFuture<PwnedRange> fetchRangeAsync(String hash5) {
+        return callRangeAsync(ppwService.searchByRange(hash5, addPadding))
+                .thenApply(unchecked(body -> toRange(hash5, SHA1_LENGTH, body)));
+    }
+
+    private CompletableFuture<PwnedRange> fetchNtlmRangeAsync(String hash5) {
+        return callRangeAsync(ppwService.searchByRangeNtlm(hash5, addPadding))
+                .thenApply(unchecked(body -> toRange(hash5, NTLM_LENGTH, body)));
+    }
+
+    /**
+     * Fetch a password range, hedging the request if that is enabled.
+     *
+     * @param call The range call
+     * @return The response body
+     * @throws HaveIBeenPwndException Thrown if an error occurs
+     */
+    private Optional<ResponseBody> callRange(Call<ResponseBody> call) throws HaveIBeenPwndException {
+        if (hedgeDelay < 0) {
+            return callService(call);
+        }
+        CompletableFuture<Optional<ResponseBody>> future = callRangeAsync(call);
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            rethrow(ex.getCause());
+            return Optional.empty();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new HaveIBeenPwndException("Interrupted while fetching a range", ex);
+        }
+    }
+
+    /**
+     * Fetch a password range asynchronously. If hedging is enabled, and the
+     * request has not answered within the 95th percentile of recent range
+     * latencies, or fails, a second request is sent and the first answer
+     * is used. The slower request is cancelled.
+     *
+     * @param call The range call
+     * @return The response body
+     */
+    private CompletableFuture<Optional<ResponseBody>> callRangeAsync(Call<ResponseBody> call) {
+        if (hedgeDelay < 0) {
+            return callServiceAsync(call);
+        }
+        CompletableFuture<Optional<ResponseBody>> res = new CompletableFuture<>();
+        List<CompletableFuture<Optional<ResponseBody>>> attempts = new CopyOnWriteArrayList<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicBoolean hedged = new AtomicBoolean();
+        AtomicReference<Runnable> hedge = new AtomicReference<>();
+        Function<Call<ResponseBody>, CompletableFuture<Optional<ResponseBody>>> send = c -> {
+            long start = System.nanoTime();
+            CompletableFuture<Optional<ResponseBody>> attempt = callServiceAsync(c);
+            attempts.add(attempt);
+            attempt.whenComplete((body, ex) -> {
+                if (ex == null) {
+                    rangeLatency.record(System.nanoTime() - start);
+                    if (!res.complete(body)) {
+                        body.ifPresent(ResponseBody::close);
+                    }
+                } else {
+                    hedge.get().run();
+                    if (outstanding.decrementAndGet() == 0) {
+                        res.completeExceptionally(ex);
+                    }
+                }
+            });
+            return attempt;
+        };
+        hedge.set(() -> {
+            if (!res.isDone() && hedged.compareAndSet(false, true)) {
+                outstanding.incrementAndGet();
+                rangeHedges.increment();
+                send.apply(call.clone());
+            }
+        });
+        send.apply(call);
+        long p95 = rangeLatency.getPercentile(95);
+        if (p95 >= 0 && !res.isDone()) {
+            ScheduledFuture<?> timer = retryScheduler().schedule(hedge.get(), Math.max(hedgeDelay, p95), TimeUnit.NANOSECONDS);
+            res.whenComplete((body, ex) -> timer.cancel(false));
+        }
+        res.whenComplete((body, ex) -> {
+            for (CompletableFuture<Optional<ResponseBody>> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Get the range to answer from when fetching a range failed, according
+     * to the failure policy.
+     *
+     * @param hash5      The first 5 digits of the hash
+     * @param hashLength The length of the hashes in bytes
+     * @param error      The error that occurred
+     * @return The range
+     * @throws HaveIBeenPwndException Thrown if the policy is to fail, or if
+     * there is no cached range to fall back to
+     */
+    private PwnedRange fallbackRange(String hash5, int hashLength, Throwable error) throws HaveIBeenPwndException {
+        switch (failurePolicy) {
+            case FAIL_OPEN:
+                return new PwnedRange.Builder(hash5, hashLength).build();
+            case FALLBACK_TO_CACHE:
+                PwnedRange range = rangeCache == null || hashLength != SHA1_LENGTH ? null : rangeCache.getStale(hash5);
+                instrumentation.onCacheLookup("stale-range", range != null);
+                if (range != null) {
+                    return range;
+                }
+                break;
+            default:
+                break;
+        }
+        rethrow(error);
+        return null;
+    }
+
+    /**
+     * Apply the failure policy to an asynchronous range lookup.
+     */
+    private <T> CompletableFuture<T> withFallback(CompletableFuture<T> future, String hash5, int hashLength, Function<PwnedRange, T> fromRange) {
+        if (failurePolicy == FailurePolicy.FAIL_CLOSED) {
+            return future;
+        }
+        CompletableFuture<T> res = new CompletableFuture<>();
+        future.whenComplete((value, ex) -> {
+            if (ex == null) {
+                res.complete(value);
+                return;
+            }
+            try {
+                res.complete(fromRange.apply(fallbackRange(hash5, hashLength, ex)));
+            } catch (HaveIBeenPwndException fail) {
+                res.completeExceptionally(fail);
+            }
+        });
+        res.whenComplete((value, ex) -> {
+            if (res.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return res;
+    }
+
+    private List<Breach> fetchBreachesForAccount(String account, String domain, boolean truncateResponse, boolean includeUnveridied) throws HaveIBeenPwndException {
+        return cached("breachedaccount", cacheKey(account, domain, truncateResponse, includeUnveridied), BREACH_LIST,
+                () -> callService(hibpService.getAllBreachesForAccount(apiKey, account, includeUnveridied, truncateResponse, domain), true).orElse(Collections.EMPTY_LIST));
+    }
+
+    private CompletableFuture<List<Breach>> fetchBreachesForAccountAsync(String account, String domain, boolean truncateResponse, boolean includeUnveridied) {
+        return cachedAsync("breachedaccount", cacheKey(account, domain, truncateResponse, includeUnveridied), BREACH_LIST,
+                () -> callServiceAsync(hibpService.getAllBreachesForAccount(apiKey, account, includeUnveridied, truncateResponse, domain), true)
+                        .thenApply(res -> res.orElse(Collections.emptyList())));
+    }
+
+    private List<Paste> fetchPastesForAccount(String account) throws HaveIBeenPwndException {
+        return cached("pasteaccount", cacheKey(account), PASTE_LIST,
+                () -> callService(hibpService.getAllPastesForAccount(apiKey, account), true).orElse(Collections.EMPTY_LIST));
+    }
+
+    private CompletableFuture<List<Paste>> fetchPastesForAccountAsync(String account) {
+        return cachedAsync("pasteaccount", cacheKey(account), PASTE_LIST,
+                () -> callServiceAsync(hibpService.getAllPastesForAccount(apiKey, account), true)
+                        .thenApply(res -> res.orElse(Collections.emptyList())));
+    }
+
+    /**
+     * Get a result from the persistent cache, or load it and add it to the
+     * cache. The cache only makes calls faster: if it cannot be read or
+     * written, or holds a result that cannot be parsed, the result is loaded
+     * as if it was not cached.
+     */
+    private <T> T cached(String namespace, String key, Type type, RequestCoalescer.Loader<T> loader) throws HaveIBeenPwndException {
+        if (persistentCache == null) {
+            return loader.load();
+        }
+        Object cached = fromCache(namespace, key, type);
+        if (cached != MISS) {
+            return (T) cached;
+        }
+        T value = loader.load();
+        toCache(namespace, key, type, value);
+        return value;
+    }
+
+    /**
+     * Asynchronous version of cached().
+     */
+    private <T> CompletableFuture<T> cachedAsync(String namespace, String key, Type type, Supplier<CompletableFuture<T>> loader) {
+        if (persistentCache == null) {
+            return loader.get();
+        }
+        Object cached = fromCache(namespace, key, type);
+        if (cached != MISS) {
+            return CompletableFuture.completedFuture((T) cached);
+        }
+        return loader.get().thenApply(value -> {
+            toCache(namespace, key, type, value);
+            return value;
+        });
+    }
+
+    /**
+     * Read a result from the persistent cache.
+     *
+     * @return The result, which may be null, or MISS if it is not cached or
+     * cannot be read
+     */
+    private Object fromCache(String namespace, String key, Type type) {
+        Object value = MISS;
+        try {
+            byte[] data = persistentCache.get(namespace, key);
+            if (data != null) {
+                value = cacheGson.fromJson(new String(data, StandardCharsets.UTF_8), type);
+            }
+        } catch (HaveIBeenPwndException | JsonParseException ex) {
+            // a miss: the result is loaded and written again
+        }
+        instrumentation.onCacheLookup(namespace, value != MISS);
+        return value;
+    }
+
+    /**
+     * Write a result to the persistent cache. A result that cannot be
+     * written is not cached.
+     */
+    private <T> void toCache(String namespace, String key, Type type, T value) {
+        try {
+            persistentCache.put(namespace, key, cacheGson.toJson(value, type).getBytes(StandardCharsets.UTF_8));
+        } catch (HaveIBeenPwndException ex) {
+            // the cache counts the error, and the caller still gets the result
+        }
+    }
+
+    /**
+     * Make the key used to cache results for an account. Accounts are not
+     * case sensitive.
+     */
+    private static String cacheKey(String account, Object... params) {
+        StringBuilder key = new StringBuilder(account == null ? "" : account.toLowerCase(Locale.ROOT));
+        for (Object param : params) {
+            key.append('|').append(param);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Decode a streamed JSON response.
+     */
+    private <T> void decode(String endpoint, JsonStreamDecoder<T> decoder, Optional<ResponseBody> res, Set<String> fields, Consumer<? super T> visitor) throws HaveIBeenPwndException {
+        long start = System.nanoTime();
+        try (ResponseBody body = res.orElse(null)) {
+            if (body != null) {
+                decoder.decode(new InputStreamReader(body.byteStream(), StandardCharsets.UTF_8), fields, visitor);
+            }
+        } catch (IOException | JsonParseException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        } finally {
+            instrumentation.onParse(endpoint, System.nanoTime() - start);
+        }
+    }
+
+    private static <F> Set<String> jsonNames(Set<F> fields, Function<F, String> name) {
+        if (fields == null) {
+            return null;
+        }
+        Set<String> names = new HashSet<>();
+        for (F field : fields) {
+            names.add(name.apply(field));
+        }
+        return names;
+    }
+
+    /**
+     * Make the key used to share requests for an account. Accounts are not
+     * case sensitive.
+     */
+    private static List<Object> accountKey(String type, String account, Object... params) {
+        List<Object> key = new ArrayList<>(params.length + 2);
+        key.add(type);
+        key.add(account == null ? null : account.toLowerCase(Locale.ROOT));
+        key.addAll(Arrays.asList(params));
+        return key;
+    }
+
+    /**
+     * Parse a range response and add it to the cache.
+     *
+     * @param hash5      The first 5 digits of the hash
+     * @param hashLength The length of the hashes in bytes
+     * @param res        The response body
+     * @return The range
+     * @throws HaveIBeenPwndException Thrown if the range cannot be read
+     */
+    private PwnedRange toRange(String hash5, int hashLength, Optional<ResponseBody> res) throws HaveIBeenPwndException {
+        PwnedRange range;
+        long start = System.nanoTime();
+        try (ResponseBody body = res.orElse(null)) {
+            range = body == null
+                    ? new PwnedRange.Builder(hash5, hashLength).build()
+                    : RangeParser.parse(hash5, hashLength, body.source());
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        } finally {
+            instrumentation.onParse("range", System.nanoTime() - start);
+        }
+        if (rangeCache != null && hashLength == SHA1_LENGTH) {
+            rangeCache.put(range);
+        }
+        return range;
+    }
+
+    /**
+     * Find the count for a hash in a range response, reading as little of it
+     * as possible.
+     *
+     * @param pwHash     The hash
+     * @param hashLength The length of the hashes in bytes
+     * @param res        The response body
+     * @return The count
+     * @throws HaveIBeenPwndException Thrown if the range cannot be read
+     */
+    private int findCount(String pwHash, int hashLength, Optional<ResponseBody> res) throws HaveIBeenPwndException {
+        long start = System.nanoTime();
+        try (ResponseBody body = res.orElse(null)) {
+            return body == null ? 0 : RangeParser.findCount(pwHash, hashLength, body.source());
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        } finally {
+            instrumentation.onParse("range", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Find the count for a binary hash in a range response.
+     *
+     * @param pwHash     The hash
+     * @param hashLength The length of the hashes in bytes
+     * @param res        The response body
+     * @return The count
+     * @throws HaveIBeenPwndException Thrown if the range cannot be read
+     */
+    private int findCount(byte[] pwHash, int hashLength, Optional<ResponseBody> res) throws HaveIBeenPwndException {
+        long start = System.nanoTime();
+        try (ResponseBody body = res.orElse(null)) {
+            return body == null ? 0 : RangeParser.findCount(pwHash, hashLength, body.source());
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        } finally {
+            instrumentation.onParse("range", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Call a service and unpack it's result or errors
+     *
+     * @param <T>  The type of service result
+     * @param call The service to call
+     * @return The result
+     * @throws HaveIBeenPwndException Thrown if an error occurs
+     */
+    private <T> Optional<T> callService(Call<T> call) throws HaveIBeenPwndException {
+        return callService(call, false);
+    }
+
+    /**
+     * Call a service and unpack it's result or errors. Calls to services that
+     * are limited by the API key wait for the rate limiter, and are retried if
+     * the API is busy.
+     *
+     * @param <T>       The type of service result
+     * @param call      The service to call
+     * @param throttled Is the service limited by the API key?
+     * @return The result
+     * @throws HaveIBeenPwndException Thrown if an error occurs
+     */
+    private <T> Optional<T> callService(Call<T> call, boolean throttled) throws HaveIBeenPwndException {
+        try {
+            for (int attempt = 0; ; ++attempt) {
+                if (throttled && rateLimiter != null) {
+                    long start = System.nanoTime();
+                    rateLimiter.acquire();
+                    instrumentation.onRateLimitWait(System.nanoTime() - start);
+                }
+                Response<T> res = call.execute();
+                if (throttled && attempt < maxRetries && isRetryable(res)) {
+                    long delay = retryDelay(res, attempt);
+                    if (rateLimiter != null) {
+                        rateLimiter.backOff(delay);
+                    } else {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                        instrumentation.onRateLimitWait(delay);
+                    }
+                    call = call.clone();
+                    continue;
+                }
+                return unpack(res);
+            }
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new HaveIBeenPwndException("Interrupted while waiting to call the API", ex);
+        }
+    }
+
+    /**
+     * Call a service asynchronously on the HTTP client's dispatcher. The
+     * returned future completes exceptionally with a HaveIBeenPwndException
+     * if an error occurs, and cancelling it cancels the call.
+     *
+     * @param <T>  The type of service result
+     * @param call The service to call
+     * @return The result
+     */
+    private <T> CompletableFuture<Optional<T>> callServiceAsync(Call<T> call) {
+        return callServiceAsync(call, false);
+    }
+
+    /**
+     * Call a service asynchronously, waiting for the rate limiter and retrying
+     * if the API is busy for services that are limited by the API key.
+     *
+     * @param <T>       The type of service result
+     * @param call      The service to call
+     * @param throttled Is the service limited by the API key?
+     * @return The result
+     */
+    private <T> CompletableFuture<Optional<T>> callServiceAsync(Call<T> call, boolean throttled) {
+        CompletableFuture<Optional<T>> future = new CompletableFuture<>();
+        AtomicReference<Call<T>> current = new AtomicReference<>(call);
+        send(current, 0, throttled, future);
+        future.whenComplete((res, ex) -> {
+            if (future.isCancelled()) {
+                current.get().cancel();
+            }
+        });
+        return future;
+    }
+
+    private <T> void send(AtomicReference<Call<T>> call, int attempt, boolean throttled, CompletableFuture<Optional<T>> future) {
+        Runnable task = () -> {
+            if (future.isDone()) {
+                return;
+            }
+            call.get().enqueue(new Callback<T>() {
+                @Override
+                public void onResponse(Call<T> c, Response<T> res) {
+                    if (throttled && attempt < maxRetries && isRetryable(res)) {
+                        long delay = retryDelay(res, attempt);
+                        call.set(c.clone());
+                        if (rateLimiter != null) {
+                            rateLimiter.backOff(delay);
+                            send(call, attempt + 1, true, future);
+                        } else {
+                            instrumentation.onRateLimitWait(delay);
+                            retryScheduler().schedule(() -> send(call, attempt + 1, true, future), delay, TimeUnit.NANOSECONDS);
+                        }
+                        return;
+                    }
+                    try {
+                        future.complete(unpack(res));
+                    } catch (HaveIBeenPwndException ex) {
+                        future.completeExceptionally(ex);
+                    }
+                }
+
+                @Override
+                public void onFailure(Call<T> c, Throwable ex) {
+                    future.completeExceptionally(new HaveIBeenPwndException(ex.getMessage(), ex));
+                }
+            });
+        };
+        if (throttled && rateLimiter != null) {
+            long start = System.nanoTime();
+            rateLimiter.schedule(() -> {
+                instrumentation.onRateLimitWait(System.nanoTime() - start);
+                task.run();
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Is the response one that should be retried later?
+     */
+    private static boolean isRetryable(Response<?> res) {
+        if (res.code() == 429 || res.code() == 503) {
+            if (res.errorBody() != null) {
+                res.errorBody().close();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Work out how long to wait before retrying a request. The Retry-After
+     * header is used if the API sent one, otherwise the delay grows
+     * exponentially with some random jitter.
+     */
+    private static long retryDelay(Response<?> res, int attempt) {
+        String retryAfter = res.headers().get("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException ex) {
+                // fall back to exponential backoff
+            }
+        }
+        long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(attempt, 16));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private static synchronized ScheduledExecutorService retryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "hibp-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retryScheduler;
+    }
+
+    /**
+     * Throw the error from a concurrent task, if there was one, as a
+     * HaveIBeenPwndException.
+     */
+    static void rethrow(Throwable ex) throws HaveIBeenPwndException {
+        if (ex == null) {
+            return;
+        }
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if (ex instanceof HaveIBeenPwndException) {
+            throw (HaveIBeenPwndException) ex;
+        }
+        throw new HaveIBeenPwndException(ex.getMessage(), ex);
+    }
+
+    /**
+     * Unpack the result or errors of a service call
+     *
+     * @param <T> The type of service result
+     * @param res The response
+     * @return The result
+     * @throws HaveIBeenPwndException Thrown if an error occurs
+     */
+    private static <T> Optional<T> unpack(Response<T> res) throws HaveIBeenPwndException {
+        try {
+            if (!res.isSuccessful()) {
+                switch (res.code()) {
+                    case 400:
+                        throw new HaveIBeenPwndException("Bad request — the account does not comply with an acceptable format (i.e. it's an empty string)");
+                    case 401:
+                        throw new HaveIBeenPwndException("Unauthorised — the API key provided was not valid");
+                    case 403:
+                        throw new HaveIBeenPwndException("Forbidden — no user agent has been specified in the request");
+                    case 404:
+                        break;
+                    case 429:
+                        throw new HaveIBeenPwndException("Too many requests — the rate limit has been exceeded");
+                    case 503:
+                        throw new HaveIBeenPwndException("Service unavailable - " + res.errorBody().string());
+                    default:
+                        throw new HaveIBeenPwndException("Unknown error code " + res.code());
+                }
+            }
+            return Optional.ofNullable(res.body());
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Wrap a function that throws HaveIBeenPwndException so that it can be
+     * used to transform a CompletableFuture.
+     */
+    private static <T, R> Function<T, R> unchecked(ServiceFunction<T, R> function) {
+        return value -> {
+            try {
+                return function.apply(value);
+            } catch (HaveIBeenPwndException ex) {
+                throw new CompletionException(ex);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface ServiceFunction<T, R> {
+
+        R apply(T value) throws HaveIBeenPwndException;
+
     }
 
 }
@@ -1,6 +1,11 @@
 package me.legrange.haveibeenpwned;
 
 import java.net.Proxy;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
 
 /** A builder pattern to setup the HaveIBeenPwndApi the way you want.
  *
@@ -11,12 +16,37 @@ public final class HaveIBeenPwndBuilder {
     private static final String HIBP_REST_URL = "https://haveibeenpwned.com/api/v3/";
     private static final String PPW_REST_URL = "https://api.pwnedpasswords.com/";
 
-    private boolean addPadding = false;
-    private String apiKey = "";
-    private String haveIbeenPwndUrl  = HIBP_REST_URL;
-    private String pwndPasswordsUrl = PPW_REST_URL;
-    private String userAgent;
-    private Proxy proxy = null;
+    boolean addPadding = false;
+    String apiKey = "";
+    String haveIbeenPwndUrl  = HIBP_REST_URL;
+    String pwndPasswordsUrl = PPW_REST_URL;
+    String userAgent;
+    Proxy proxy = null;
+    PwnedPasswordsCorpus corpus = null;
+    RangeCache rangeCache = null;
+    PwnedPasswordsFilter prefilter = null;
+    int maxRequests = 64;
+    int maxRequestsPerHost = 5;
+    RateLimiter rateLimiter = null;
+    int maxRetries = 0;
+    Duration catalogueRefresh = null;
+    OkHttpClient httpClient = null;
+    ConnectionPool connectionPool = null;
+    Duration connectTimeout = null;
+    Duration readTimeout = null;
+    Duration callTimeout = null;
+    boolean http2 = true;
+    boolean coalesceRequests = false;
+    Instrumentation instrumentation = Instrumentation.NONE;
+    PersistentCache persistentCache = null;
+    boolean virtualThreads = false;
+    CircuitBreaker passwordsCircuitBreaker = null;
+    CircuitBreaker breachesCircuitBreaker = null;
+    Duration hedgeDelay = null;
+    FailurePolicy failurePolicy = FailurePolicy.FAIL_CLOSED;
+    ShardRouter shardRouter = null;
+    PrefixPopularity prefixPopularity = null;
+    int prewarmRanges = 0;
 
     /** Create a new builder.
      *
@@ -90,12 +120,324 @@ public final class HaveIBeenPwndBuilder {
         return this;
     }
 
+    /** Answer password checks from a local corpus instead of the Pwned Passwords API.
+     * No network calls are made for password checks when a corpus is set.
+     * The corpus must hold SHA1 hashes; a corpus of NT hashes would answer
+     * every check with "not pwned".
+     *
+     * @param corpus The corpus to use
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withLocalCorpus(PwnedPasswordsCorpus corpus) {
+        if (corpus != null && corpus.getHashLength() != PasswordHasher.SHA1_LENGTH) {
+            throw new IllegalArgumentException("The corpus must hold SHA1 hashes");
+        }
+        this.corpus = corpus;
+        return this;
+    }
+
+    /** Cache Pwned Passwords ranges so that checks against a recently
+     * fetched range don't need a network call.
+     *
+     * @param rangeCache The cache to use, for example a LruRangeCache
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withRangeCache(RangeCache rangeCache) {
+        this.rangeCache = rangeCache;
+        return this;
+    }
+
+    /** Check password hashes against a probabilistic filter first, and only
+     * fetch their range if the filter says they might be pwned.
+     * <p>
+     * The filter is a snapshot of the corpus it was built from. Passwords
+     * pwned since then are reported as not pwned, also when ranges are
+     * fetched from the live API, so the filter must be rebuilt whenever the
+     * corpus is refreshed.
+     *
+     * @param prefilter The filter to use
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withPrefilter(PwnedPasswordsFilter prefilter) {
+        this.prefilter = prefilter;
+        return this;
+    }
+
+    /** Count password range lookups, and load the most popular ranges into
+     * the range cache in the background when the API is built, so that the
+     * first checks after a restart are as fast as later ones. Ranges are
+     * loaded concurrently, up to the maximum requests per host.
+     *
+     * @param prefixPopularity The tracker that counts lookups
+     * @param prewarmRanges The number of ranges to load. This needs a range
+     * cache large enough to hold them.
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withPrefixPopularity(PrefixPopularity prefixPopularity, int prewarmRanges) {
+        this.prefixPopularity = prefixPopularity;
+        this.prewarmRanges = prewarmRanges;
+        return this;
+    }
+
+    /** Keep account breaches, account pastes and breaches looked up by name
+     * in a cache on disk, so that they survive restarts.
+     *
+     * @param persistentCache The cache to use
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withPersistentCache(PersistentCache persistentCache) {
+        this.persistentCache = persistentCache;
+        return this;
+    }
+
+    /** Set the maximum number of asynchronous requests to run at the same
+     * time. More requests are queued until others complete.
+     *
+     * @param maxRequests The maximum number of requests
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+        return this;
+    }
+
+    /** Set the maximum number of asynchronous requests to run at the same
+     * time to each of the HaveIBeenPwnd and Pwned Passwords hosts. This is also
+     * the number of ranges fetched at the same time by checkHashes().
+     *
+     * @param maxRequestsPerHost The maximum number of requests per host
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    /** Use the given HTTP client as the base for the API's client. The API
+     * adds its own interceptors to a copy of it, but shares its connection
+     * pool and dispatcher, so several API instances created from the same
+     * client reuse connections and share request limits. When a client is
+     * given, the maximum requests set on this builder are not used.
+     *
+     * @param httpClient The client to use
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withHttpClient(OkHttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /** Use the given connection pool. A pool can be shared between API
+     * instances.
+     *
+     * @param connectionPool The connection pool
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        return this;
+    }
+
+    /** Set the size of the connection pool, and how long idle connections are
+     * kept alive.
+     *
+     * @param maxIdleConnections The maximum number of idle connections
+     * @param keepAlive How long to keep idle connections
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withConnectionPool(int maxIdleConnections, Duration keepAlive) {
+        return withConnectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    /** Set the timeout for connecting to the APIs.
+     *
+     * @param timeout The timeout
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withConnectTimeout(Duration timeout) {
+        this.connectTimeout = timeout;
+        return this;
+    }
+
+    /** Set the timeout for reading from a connection.
+     *
+     * @param timeout The timeout
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withReadTimeout(Duration timeout) {
+        this.readTimeout = timeout;
+        return this;
+    }
+
+    /** Set the timeout for a complete call, from connecting to reading the
+     * whole response.
+     *
+     * @param timeout The timeout
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withCallTimeout(Duration timeout) {
+        this.callTimeout = timeout;
+        return this;
+    }
+
+    /** Enable or disable HTTP/2. HTTP/2 is enabled by default, and lets many
+     * requests share one connection.
+     *
+     * @param http2 True to use HTTP/2 if the server supports it
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withHttp2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    /** Run blocking work started by the API, such as screenAccounts() and the
+     * HTTP client's asynchronous calls, on virtual threads. Virtual threads
+     * need Java 21 or later; on older JVMs platform threads are used as
+     * before.
+     *
+     * @param virtualThreads True to use virtual threads when available
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /** Let concurrent lookups of the same password range or account share
+     * one request. With this enabled, password checks parse the whole range
+     * so that it can be shared, instead of stopping at the matching hash.
+     *
+     * @param coalesceRequests True to share requests
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withRequestCoalescing(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+        return this;
+    }
+
+    /** Send measurements of API calls, such as latencies, status codes, parse
+     * times, cache hits and rate limit waits, to the given instrumentation.
+     * Use ApiMetrics to keep them in memory, or InstrumentationAdapter to pass
+     * them on to another metrics library.
+     *
+     * @param instrumentation The instrumentation
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        return this;
+    }
+
+    /** Limit calls that use the API key to the rate allowed for its tier.
+     *
+     * @param tier The tier of the API key
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withRateLimit(ApiKeyTier tier) {
+        return withRateLimiter(new RateLimiter(tier));
+    }
+
+    /** Limit calls that use the API key with the given rate limiter. The
+     * same rate limiter should be used for all API instances that share a key.
+     *
+     * @param rateLimiter The rate limiter
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /** Set how many times calls that use the API key are retried if the API
+     * responds that there are too many requests or that it is unavailable.
+     * Retries honour the Retry-After header sent by the API.
+     *
+     * @param maxRetries The maximum number of retries
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /** Pass calls to the Pwned Passwords API through a circuit breaker, so
+     * that password checks fail fast while it is failing or slow.
+     *
+     * @param circuitBreaker The circuit breaker
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.passwordsCircuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /** Pass calls to the haveibeenpwned.com API through a circuit breaker.
+     * Responses that say there are too many requests don't count against it.
+     *
+     * @param circuitBreaker The circuit breaker
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withBreachCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.breachesCircuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /** Send a second request for a password range if the first has not
+     * answered within the 95th percentile of recent range latencies, and use
+     * whichever answers first. A range request that fails is also sent again
+     * at once. Range requests are idempotent, so this is safe.
+     *
+     * @param minDelay The shortest time to wait before sending a second
+     * request
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withHedgedRangeRequests(Duration minDelay) {
+        this.hedgeDelay = minDelay;
+        return this;
+    }
+
+    /** Set what password checks do when the Pwned Passwords API fails.
+     *
+     * @param failurePolicy The policy
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withFailurePolicy(FailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy;
+        return this;
+    }
+
+    /** Fetch password ranges from a sharded fleet of range servers instead
+     * of the Pwned Passwords URL. Each range is fetched from the first node
+     * that holds it, and from its replicas if that node fails. The circuit
+     * breaker for Pwned Passwords is not used, since failing over is done
+     * per node.
+     *
+     * @param shardRouter The router that knows which nodes hold each range
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withShards(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+        return this;
+    }
+
+    /** Keep an in-memory catalogue of all breaches, and answer breach, domain
+     * and data class queries from it instead of calling the API each time.
+     *
+     * @param refreshInterval How often the catalogue is refreshed
+     * @return The builder
+     */
+    public HaveIBeenPwndBuilder withBreachCatalogue(Duration refreshInterval) {
+        this.catalogueRefresh = refreshInterval;
+        return this;
+    }
+
     /** Build the API
      *
      * @return The API
      */
     public HaveIBeenPwndApi build() {
-        return new HaveIBeenPwndApi(haveIbeenPwndUrl, pwndPasswordsUrl, addPadding, userAgent, apiKey, proxy);
+        return new HaveIBeenPwndApi(this);
     }
 
     private HaveIBeenPwndBuilder() {
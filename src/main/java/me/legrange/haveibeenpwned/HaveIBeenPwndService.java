@@ -1,11 +1,13 @@
 package me.legrange.haveibeenpwned;
 
 import java.util.List;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Header;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 /**
  *
@@ -33,4 +35,20 @@ interface HaveIBeenPwndService {
     @GET("pasteaccount/{account}")
     Call<List<Paste>> getAllPastesForAccount(@Header("hibp-api-key") String apiKey, @Path(value="account", encoded = false) String account);
 
+    @Streaming
+    @GET("breachedaccount/{account}")
+    Call<ResponseBody> streamBreachesForAccount(@Header("hibp-api-key") String apiKey,
+            @Path(value = "account", encoded = false) String account,
+            @Query("includeUnveridied") boolean includeUnverified,
+            @Query("truncateResponse") boolean truncateResponse,
+            @Query("domain") String domain);
+
+    @Streaming
+    @GET("breaches")
+    Call<ResponseBody> streamBreaches(@Query("domain") String domain);
+
+    @Streaming
+    @GET("pasteaccount/{account}")
+    Call<ResponseBody> streamPastesForAccount(@Header("hibp-api-key") String apiKey, @Path(value="account", encoded = false) String account);
+
 }
@@ -0,0 +1,118 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * Small helpers to work with hex encoded hashes without creating intermediate
+ * objects.
+ *
+ * @author gideon
+ */
+final class Hex {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Get the value of a hex digit.
+     *
+     * @param c The digit (upper or lower case)
+     * @return The value
+     * @throws IllegalArgumentException If the character is not a hex digit
+     */
+    static int value(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        throw new IllegalArgumentException("Invalid hex digit '" + c + "'");
+    }
+
+    /**
+     * Check if a string is a hex encoded hash.
+     *
+     * @param hash   The string
+     * @param length The length of the hash in bytes
+     * @return True if the string has exactly the right number of hex digits
+     */
+    static boolean isHash(CharSequence hash, int length) {
+        if (hash == null || hash.length() != length * 2) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); ++i) {
+            char c = hash.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'F' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the first digits of a hex string into an int.
+     *
+     * @param hex    The hex string
+     * @param digits The number of digits to parse (at most 7)
+     * @return The value
+     */
+    static int parse(CharSequence hex, int digits) {
+        int res = 0;
+        for (int i = 0; i < digits; ++i) {
+            res = (res << 4) | value(hex.charAt(i));
+        }
+        return res;
+    }
+
+    /**
+     * Get the hex digit for a value.
+     *
+     * @param value The value (0 to 15)
+     * @return The upper case digit
+     */
+    static char digit(int value) {
+        return DIGITS[value & 0xF];
+    }
+
+    /**
+     * Encode a 5 digit range prefix.
+     *
+     * @param prefix The prefix (0 to 0xFFFFF)
+     * @return The upper case hex string
+     */
+    static String prefix(int prefix) {
+        char[] buf = new char[5];
+        for (int i = 4; i >= 0; --i) {
+            buf[i] = digit(prefix);
+            prefix >>>= 4;
+        }
+        return new String(buf);
+    }
+
+    /**
+     * Get the 5 digit range prefix of a binary hash.
+     *
+     * @param hash The hash (at least 3 bytes)
+     * @return The prefix (0 to 0xFFFFF)
+     */
+    static int prefix(byte[] hash) {
+        return ((hash[0] & 0xFF) << 12) | ((hash[1] & 0xFF) << 4) | ((hash[2] & 0xFF) >>> 4);
+    }
+
+    /**
+     * Get a hex digit of a binary hash.
+     *
+     * @param hash  The hash
+     * @param digit The index of the digit
+     * @return The value of the digit
+     */
+    static int nibble(byte[] hash, int digit) {
+        int b = hash[digit / 2];
+        return (digit & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+    }
+
+    private Hex() {
+    }
+
+}
@@ -0,0 +1,82 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * Receives measurements of what the API is doing. Implementations are called
+ * on the threads that make the calls, so they must be thread safe and should
+ * return quickly.
+ * <p>
+ * Endpoints are named after the API paths: "breachedaccount", "breaches",
+ * "breach", "dataclasses", "pasteaccount" and "range". All methods do nothing
+ * by default.
+ *
+ * @author gideon
+ */
+public interface Instrumentation {
+
+    /**
+     * Instrumentation that records nothing.
+     */
+    Instrumentation NONE = new Instrumentation() {
+    };
+
+    /**
+     * An HTTP response was received.
+     *
+     * @param endpoint The endpoint called
+     * @param status   The HTTP status code
+     * @param nanos    The time from sending the request to receiving the
+     *                 response headers
+     */
+    default void onResponse(String endpoint, int status, long nanos) {
+    }
+
+    /**
+     * An HTTP request failed without a response, for example because the
+     * connection failed or timed out.
+     *
+     * @param endpoint The endpoint called
+     * @param error    The error
+     * @param nanos    The time until the request failed
+     */
+    default void onFailure(String endpoint, Throwable error, long nanos) {
+    }
+
+    /**
+     * A response body was read.
+     *
+     * @param endpoint The endpoint called
+     * @param bytes    The number of body bytes received, before they were
+     *                 decompressed
+     */
+    default void onBytesRead(String endpoint, long bytes) {
+    }
+
+    /**
+     * A response body was parsed. Bodies are parsed as they are read, so this
+     * includes the time spent reading the rest of the body.
+     *
+     * @param endpoint The endpoint called
+     * @param nanos    The time spent parsing
+     */
+    default void onParse(String endpoint, long nanos) {
+    }
+
+    /**
+     * A cache was checked.
+     *
+     * @param cache The name of the cache, for example "range"
+     * @param hit   True if the value was found
+     */
+    default void onCacheLookup(String cache, boolean hit) {
+    }
+
+    /**
+     * A call waited before being sent, because of the rate limit or because
+     * the API asked for it to be retried later.
+     *
+     * @param nanos The time waited
+     */
+    default void onRateLimitWait(long nanos) {
+    }
+
+}
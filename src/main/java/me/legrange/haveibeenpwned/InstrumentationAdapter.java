@@ -0,0 +1,97 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Instrumentation that passes its measurements on as named, tagged timers and
+ * counters, to bridge them into another metrics library. The metrics are:
+ * <ul>
+ * <li>hibp.request: timer, tagged with endpoint and status ("error" if the
+ * request failed)</li>
+ * <li>hibp.response.bytes: counter, tagged with endpoint</li>
+ * <li>hibp.parse: timer, tagged with endpoint</li>
+ * <li>hibp.cache: counter, tagged with cache and result ("hit" or "miss")</li>
+ * <li>hibp.ratelimit.wait: timer</li>
+ * </ul>
+ *
+ * @author gideon
+ */
+public final class InstrumentationAdapter implements Instrumentation {
+
+    /**
+     * Receives the metrics, for example by recording them in a registry.
+     */
+    public interface Sink {
+
+        /**
+         * Record a duration.
+         *
+         * @param name  The metric name
+         * @param tags  The tags
+         * @param nanos The duration in nanoseconds
+         */
+        void recordTime(String name, Map<String, String> tags, long nanos);
+
+        /**
+         * Increment a counter.
+         *
+         * @param name   The metric name
+         * @param tags   The tags
+         * @param amount The amount to add
+         */
+        void increment(String name, Map<String, String> tags, long amount);
+
+    }
+
+    private final Sink sink;
+
+    /**
+     * Create a new adapter.
+     *
+     * @param sink The sink that receives the metrics
+     */
+    public InstrumentationAdapter(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onResponse(String endpoint, int status, long nanos) {
+        sink.recordTime("hibp.request", tags("endpoint", endpoint, "status", Integer.toString(status)), nanos);
+    }
+
+    @Override
+    public void onFailure(String endpoint, Throwable error, long nanos) {
+        sink.recordTime("hibp.request", tags("endpoint", endpoint, "status", "error"), nanos);
+    }
+
+    @Override
+    public void onBytesRead(String endpoint, long bytes) {
+        sink.increment("hibp.response.bytes", tags("endpoint", endpoint), bytes);
+    }
+
+    @Override
+    public void onParse(String endpoint, long nanos) {
+        sink.recordTime("hibp.parse", tags("endpoint", endpoint), nanos);
+    }
+
+    @Override
+    public void onCacheLookup(String cache, boolean hit) {
+        sink.increment("hibp.cache", tags("cache", cache, "result", hit ? "hit" : "miss"), 1);
+    }
+
+    @Override
+    public void onRateLimitWait(long nanos) {
+        sink.recordTime("hibp.ratelimit.wait", Collections.emptyMap(), nanos);
+    }
+
+    private static Map<String, String> tags(String... pairs) {
+        Map<String, String> tags = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            tags.put(pairs[i], pairs[i + 1]);
+        }
+        return Collections.unmodifiableMap(tags);
+    }
+
+}
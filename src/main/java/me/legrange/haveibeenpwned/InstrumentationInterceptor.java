@@ -0,0 +1,187 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+/**
+ * Measures HTTP calls for the instrumentation: the time to the response
+ * headers and the status code. It also provides a network interceptor that
+ * counts the body bytes received before they are decompressed, and a
+ * converter factory that measures how long response bodies take to decode.
+ *
+ * @author gideon
+ */
+final class InstrumentationInterceptor implements Interceptor {
+
+    private static final Set<String> ENDPOINTS = new HashSet<>(Arrays.asList(
+            "breachedaccount", "breaches", "breach", "dataclasses", "pasteaccount", "range"));
+
+    private final Instrumentation instrumentation;
+
+    InstrumentationInterceptor(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String endpoint = endpoint(chain.request().url().pathSegments());
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException ex) {
+            instrumentation.onFailure(endpoint, ex, System.nanoTime() - start);
+            throw ex;
+        }
+        instrumentation.onResponse(endpoint, response.code(), System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Make an interceptor that counts the body bytes of responses. It must be
+     * added as a network interceptor, so that it sees the bytes as they were
+     * sent, before OkHttp decompresses them.
+     *
+     * @return The interceptor
+     */
+    Interceptor networkInterceptor() {
+        return chain -> {
+            Response response = chain.proceed(chain.request());
+            if (response.body() == null) {
+                return response;
+            }
+            String endpoint = endpoint(chain.request().url().pathSegments());
+            return response.newBuilder().body(new CountingBody(endpoint, response.body())).build();
+        };
+    }
+
+    /**
+     * Wrap a converter factory so that the time spent in its converters is
+     * recorded as parse time.
+     *
+     * @param delegate The factory to wrap
+     * @return The wrapped factory
+     */
+    Converter.Factory converterFactory(Converter.Factory delegate) {
+        return new Converter.Factory() {
+            @Override
+            public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+                Converter<ResponseBody, ?> converter = delegate.responseBodyConverter(type, annotations, retrofit);
+                if (converter == null) {
+                    return null;
+                }
+                String endpoint = endpoint(annotations);
+                return body -> {
+                    long start = System.nanoTime();
+                    try {
+                        return converter.convert(body);
+                    } finally {
+                        instrumentation.onParse(endpoint, System.nanoTime() - start);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Work out the endpoint from the path of a request.
+     */
+    static String endpoint(List<String> segments) {
+        for (String segment : segments) {
+            if (ENDPOINTS.contains(segment)) {
+                return segment;
+            }
+        }
+        return "other";
+    }
+
+    /**
+     * Work out the endpoint from the annotations of a service method.
+     */
+    private static String endpoint(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof GET) {
+                return endpoint(Arrays.asList(((GET) annotation).value().split("/")));
+            }
+        }
+        return endpoint(Collections.emptyList());
+    }
+
+    /**
+     * A response body that counts the bytes read from it, and reports them
+     * when it is closed or fully read.
+     */
+    private final class CountingBody extends ResponseBody {
+
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        private CountingBody(String endpoint, ResponseBody delegate) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+
+                private final AtomicBoolean reported = new AtomicBoolean();
+                private long bytes = 0;
+
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read == -1) {
+                        report();
+                    } else {
+                        bytes += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    report();
+                    super.close();
+                }
+
+                private void report() {
+                    if (reported.compareAndSet(false, true)) {
+                        instrumentation.onBytesRead(endpoint, bytes);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package me.legrange.haveibeenpwned;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Decodes a JSON array of objects one object at a time, so that the whole
+ * array never has to be in memory. Only the requested fields are decoded;
+ * the others are skipped without being turned into objects.
+ * <p>
+ * Fields are matched on their SerializedName, and decoded with the same Gson
+ * type adapters that the API uses for whole responses.
+ *
+ * @param <T> The type of object decoded
+ * @author gideon
+ */
+final class JsonStreamDecoder<T> {
+
+    private final Constructor<T> constructor;
+    private final Map<String, Binding> bindings = new HashMap<>();
+
+    JsonStreamDecoder(Gson gson, Class<T> type) {
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(type.getName() + " has no default constructor", ex);
+        }
+        for (Field field : type.getDeclaredFields()) {
+            SerializedName name = field.getAnnotation(SerializedName.class);
+            if (name != null && !Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                bindings.put(name.value(), new Binding(field, gson.getAdapter(TypeToken.get(field.getGenericType()))));
+            }
+        }
+    }
+
+    /**
+     * Decode the objects in a JSON array. A single object is also accepted.
+     *
+     * @param in      The JSON
+     * @param fields  The JSON names of the fields to decode, or null for all
+     * @param visitor Receives each object as it is decoded
+     * @throws IOException Thrown if the JSON cannot be read
+     */
+    void decode(Reader in, Set<String> fields, Consumer<? super T> visitor) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                visitor.accept(read(reader, fields));
+            }
+            reader.endArray();
+        } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            visitor.accept(read(reader, fields));
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    private T read(JsonReader reader, Set<String> fields) throws IOException {
+        T obj = newInstance();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            Binding binding = bindings.get(name);
+            if (binding == null || (fields != null && !fields.contains(name)) || reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else {
+                binding.read(reader, obj);
+            }
+        }
+        reader.endObject();
+        return obj;
+    }
+
+    private T newInstance() throws IOException {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+            throw new IOException("Cannot create " + constructor.getDeclaringClass().getSimpleName(), ex);
+        }
+    }
+
+    /**
+     * A field and the adapter that decodes its value.
+     */
+    private static final class Binding {
+
+        private final Field field;
+        private final TypeAdapter<?> adapter;
+
+        private Binding(Field field, TypeAdapter<?> adapter) {
+            this.field = field;
+            this.adapter = adapter;
+        }
+
+        private void read(JsonReader reader, Object obj) throws IOException {
+            try {
+                field.set(obj, adapter.read(reader));
+            } catch (IllegalAccessException ex) {
+                throw new IOException("Cannot set " + field.getName(), ex);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * Tracks the recent latencies of a call, so that percentiles follow changes
+ * in the API's response times. Latencies are recorded in a histogram that is
+ * replaced once it is full, and the previous histogram is used until the new
+ * one has enough samples.
+ *
+ * @author gideon
+ */
+final class LatencyWindow {
+
+    private static final int WINDOW = 1000;
+    private static final int MIN_SAMPLES = 20;
+
+    private volatile Histogram current = new Histogram();
+    private volatile Histogram previous = null;
+
+    /**
+     * Record the latency of a call.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    void record(long nanos) {
+        Histogram histogram = current;
+        histogram.record(nanos);
+        if (histogram.getCount() >= WINDOW) {
+            synchronized (this) {
+                if (current == histogram) {
+                    previous = histogram;
+                    current = new Histogram();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a percentile of the recent latencies.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency in nanoseconds, or -1 if too few calls have been
+     * recorded
+     */
+    long getPercentile(double percentile) {
+        Histogram histogram = current;
+        if (histogram.getCount() < MIN_SAMPLES) {
+            histogram = previous;
+            if (histogram == null) {
+                return -1;
+            }
+        }
+        return histogram.getPercentile(percentile);
+    }
+
+}
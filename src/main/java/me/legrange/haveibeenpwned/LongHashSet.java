@@ -0,0 +1,77 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * A set of longs in one open addressing array, using 8 bytes per slot
+ * instead of the 50 or so bytes a boxed HashSet entry takes. It is not thread
+ * safe.
+ *
+ * @author gideon
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = 0;
+    private static final long ZERO = 0x9E3779B97F4A7C15L;
+
+    private long[] slots;
+    private int size = 0;
+
+    LongHashSet() {
+        slots = new long[1024];
+    }
+
+    /**
+     * Add a value to the set.
+     *
+     * @param value The value
+     * @return True if the value was not in the set yet
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            value = ZERO;
+        }
+        int mask = slots.length - 1;
+        int i = (int) mix(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        if (++size > slots.length * 3 / 4) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of values in the set.
+     *
+     * @return The size
+     */
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = (int) mix(value) & mask;
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        return value ^ (value >>> 33);
+    }
+
+}
@@ -0,0 +1,146 @@
+package me.legrange.haveibeenpwned;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A range cache with a maximum size in bytes, that expires ranges after a
+ * time to live and evicts the least recently used ranges when full.
+ *
+ * @author gideon
+ */
+public final class LruRangeCache implements RangeCache {
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxBytes The maximum memory to use for cached ranges
+     * @param ttl      How long a range is kept before it is fetched again
+     */
+    public LruRangeCache(long maxBytes, Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public synchronized PwnedRange get(String hash5) {
+        Entry entry = entries.get(hash5.toUpperCase());
+        if (entry == null || System.nanoTime() - entry.added > ttlNanos) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.range;
+    }
+
+    /**
+     * Get a cached range even if it has expired. Expired ranges are kept
+     * until they are replaced or evicted, so that they can be used when the
+     * API cannot be reached.
+     *
+     * @param hash5 The 5 digit prefix of the range
+     * @return The range, or null if it is not cached
+     */
+    @Override
+    public synchronized PwnedRange getStale(String hash5) {
+        Entry entry = entries.get(hash5.toUpperCase());
+        return entry == null ? null : entry.range;
+    }
+
+    @Override
+    public synchronized void put(PwnedRange range) {
+        if (range.sizeInBytes() > maxBytes) {
+            return;
+        }
+        remove(range.getPrefix());
+        entries.put(range.getPrefix(), new Entry(range, System.nanoTime()));
+        bytes += range.sizeInBytes();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().range.sizeInBytes();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Get the number of lookups that were answered from the cache.
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that were not answered from the cache.
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of ranges removed to make space for others.
+     *
+     * @return The number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the memory used by the cached ranges.
+     *
+     * @return The size in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the number of cached ranges.
+     *
+     * @return The number of ranges
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LruRangeCache{ranges=%d, bytes=%d, hits=%d, misses=%d, evictions=%d}",
+                entries.size(), bytes, hits, misses, evictions);
+    }
+
+    private void remove(String hash5) {
+        Entry old = entries.remove(hash5);
+        if (old != null) {
+            bytes -= old.range.sizeInBytes();
+        }
+    }
+
+    private static final class Entry {
+
+        private final PwnedRange range;
+        private final long added;
+
+        private Entry(PwnedRange range, long added) {
+            this.range = range;
+            this.added = added;
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.Arrays;
+
+/**
+ * The MD4 message digest (RFC 1320), which Windows uses for NT password
+ * hashes. The JDK does not make MD4 available through MessageDigest, so it is
+ * implemented here. MD4 is broken and must only be used to look up existing
+ * NT hashes.
+ * <p>
+ * An instance keeps its working buffers between digests and is not thread
+ * safe.
+ *
+ * @author gideon
+ */
+final class Md4 {
+
+    static final int LENGTH = 16;
+
+    private static final int[] ROUND3 = {0, 2, 1, 3};
+
+    private final int[] state = new int[4];
+    private final int[] x = new int[16];
+    private final byte[] tail = new byte[128];
+
+    /**
+     * Compute the digest of the first bytes of an array.
+     *
+     * @param data   The data
+     * @param length The number of bytes to digest
+     * @param hash   The array that receives the 16 byte digest
+     */
+    void digest(byte[] data, int length, byte[] hash) {
+        state[0] = 0x67452301;
+        state[1] = 0xefcdab89;
+        state[2] = 0x98badcfe;
+        state[3] = 0x10325476;
+        int full = length & ~63;
+        for (int off = 0; off < full; off += 64) {
+            block(data, off);
+        }
+        int rest = length - full;
+        System.arraycopy(data, full, tail, 0, rest);
+        tail[rest] = (byte) 0x80;
+        int tailLength = rest < 56 ? 64 : 128;
+        Arrays.fill(tail, rest + 1, tailLength, (byte) 0);
+        long bits = (long) length << 3;
+        for (int i = 0; i < 8; ++i) {
+            tail[tailLength - 8 + i] = (byte) (bits >>> (8 * i));
+        }
+        for (int off = 0; off < tailLength; off += 64) {
+            block(tail, off);
+        }
+        for (int i = 0; i < 4; ++i) {
+            hash[i * 4] = (byte) state[i];
+            hash[i * 4 + 1] = (byte) (state[i] >>> 8);
+            hash[i * 4 + 2] = (byte) (state[i] >>> 16);
+            hash[i * 4 + 3] = (byte) (state[i] >>> 24);
+        }
+        Arrays.fill(tail, (byte) 0);
+        Arrays.fill(x, 0);
+    }
+
+    private void block(byte[] data, int off) {
+        for (int i = 0; i < 16; ++i) {
+            int p = off + i * 4;
+            x[i] = (data[p] & 0xFF) | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF) << 16 | (data[p + 3] & 0xFF) << 24;
+        }
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        for (int i = 0; i < 16; i += 4) {
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i], 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1], 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2], 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3], 19);
+        }
+        for (int i = 0; i < 4; ++i) {
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x[i] + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x[i + 4] + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x[i + 8] + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x[i + 12] + 0x5a827999, 13);
+        }
+        for (int i : ROUND3) {
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x[i] + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x[i + 8] + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x[i + 4] + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x[i + 12] + 0x6ed9eba1, 15);
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+    }
+
+}
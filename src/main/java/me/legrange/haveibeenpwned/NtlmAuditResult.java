@@ -0,0 +1,62 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * The result of checking one account's NT hash from an Active Directory
+ * export against Pwned Passwords.
+ *
+ * @author gideon
+ */
+public final class NtlmAuditResult {
+
+    private final String account;
+    private final String ntHash;
+    private final int count;
+
+    NtlmAuditResult(String account, String ntHash, int count) {
+        this.account = account;
+        this.ntHash = ntHash;
+        this.count = count;
+    }
+
+    /**
+     * Get the account, as it appears in the export.
+     *
+     * @return The account, or null if the export only has hashes
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * Get the account's NT hash.
+     *
+     * @return The upper case hex hash
+     */
+    public String getNtHash() {
+        return ntHash;
+    }
+
+    /**
+     * Get the number of times the password has been seen in breaches.
+     *
+     * @return The count, or 0 if it is not pwned
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Check if the account's password has been pwned.
+     *
+     * @return True if it has been seen in breaches
+     */
+    public boolean isPwned() {
+        return count > 0;
+    }
+
+    @Override
+    public String toString() {
+        return (account == null ? "" : account + ":") + ntHash + ":" + count;
+    }
+
+}
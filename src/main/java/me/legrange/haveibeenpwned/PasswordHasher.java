@@ -0,0 +1,155 @@
+package me.legrange.haveibeenpwned;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Hashes passwords with SHA1, or as NT hashes, using digests and an encoding
+ * buffer kept per thread, so that hashing does not create Strings or other
+ * intermediate objects. The encoding buffer is cleared after each password.
+ *
+ * @author gideon
+ */
+final class PasswordHasher {
+
+    static final int SHA1_LENGTH = 20;
+    static final int NTLM_LENGTH = Md4.LENGTH;
+
+    private static final ThreadLocal<PasswordHasher> HASHERS = ThreadLocal.withInitial(PasswordHasher::new);
+
+    private final MessageDigest digest;
+    private final Md4 md4 = new Md4();
+    private byte[] encoded = new byte[64];
+
+    /**
+     * Hash a password.
+     *
+     * @param password The password
+     * @param hash     The array that receives the 20 byte hash
+     */
+    static void sha1(char[] password, byte[] hash) {
+        HASHERS.get().digest(password, hash);
+    }
+
+    /**
+     * Hash a password that is already encoded.
+     *
+     * @param password The password bytes
+     * @param hash     The array that receives the 20 byte hash
+     */
+    static void sha1(byte[] password, byte[] hash) {
+        PasswordHasher hasher = HASHERS.get();
+        hasher.digest.update(password);
+        hasher.finish(hash);
+    }
+
+    /**
+     * Make the NT hash of a password, which is the MD4 digest of the password
+     * encoded as UTF-16LE.
+     *
+     * @param password The password
+     * @param hash     The array that receives the 16 byte hash
+     */
+    static void ntlm(char[] password, byte[] hash) {
+        HASHERS.get().ntDigest(password, hash);
+    }
+
+    /**
+     * Encode a hash as upper case hex.
+     *
+     * @param hash The hash
+     * @return The hex string
+     */
+    static String toHex(byte[] hash) {
+        char[] buf = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            buf[i * 2] = Hex.digit(hash[i] >> 4);
+            buf[i * 2 + 1] = Hex.digit(hash[i]);
+        }
+        return new String(buf);
+    }
+
+    private PasswordHasher() {
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is not available", ex);
+        }
+    }
+
+    private void digest(char[] password, byte[] hash) {
+        int len = 0;
+        try {
+            if (encoded.length < password.length * 3) {
+                encoded = new byte[password.length * 3];
+            }
+            len = encode(password, encoded);
+            digest.update(encoded, 0, len);
+            finish(hash);
+        } finally {
+            Arrays.fill(encoded, 0, len, (byte) 0);
+        }
+    }
+
+    private void ntDigest(char[] password, byte[] hash) {
+        int len = password.length * 2;
+        try {
+            if (encoded.length < len) {
+                encoded = new byte[len];
+            }
+            for (int i = 0; i < password.length; ++i) {
+                encoded[i * 2] = (byte) password[i];
+                encoded[i * 2 + 1] = (byte) (password[i] >> 8);
+            }
+            md4.digest(encoded, len, hash);
+        } finally {
+            Arrays.fill(encoded, 0, len, (byte) 0);
+        }
+    }
+
+    private void finish(byte[] hash) {
+        try {
+            digest.digest(hash, 0, SHA1_LENGTH);
+        } catch (DigestException ex) {
+            digest.reset();
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Encode characters as UTF-8 the same way String.getBytes() does, with
+     * unpaired surrogates replaced by '?'.
+     *
+     * @return The number of bytes
+     */
+    private static int encode(char[] chars, byte[] buf) {
+        int pos = 0;
+        for (int i = 0; i < chars.length; ++i) {
+            char c = chars[i];
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < chars.length && Character.isLowSurrogate(chars[i + 1])) {
+                    int cp = Character.toCodePoint(c, chars[++i]);
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    buf[pos++] = '?';
+                }
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+}
@@ -0,0 +1,32 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * The fields of a paste, used to choose which fields are decoded when pastes
+ * are streamed.
+ *
+ * @author gideon
+ */
+public enum PasteField {
+
+    SOURCE("Source"),
+    ID("Id"),
+    TITLE("Title"),
+    DATE("Date"),
+    EMAIL_COUNT("EmailCount");
+
+    private final String jsonName;
+
+    PasteField(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    /**
+     * Get the name of the field in the API's JSON.
+     *
+     * @return The JSON name
+     */
+    public String getJsonName() {
+        return jsonName;
+    }
+
+}
@@ -0,0 +1,604 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A cache of API results kept in files, so that it survives restarts.
+ * <p>
+ * Results are appended to a log file. Each record holds the key, the time it
+ * expires, the value and a checksum. Keys are salted SHA-256 hashes, so the
+ * accounts they were made from are never written to disk; the salt is random
+ * and kept in the cache directory.
+ * <p>
+ * An index of keys to log positions is written when the cache is closed or
+ * compacted, and is memory-mapped when the cache is opened, so only the
+ * records written after the index have to be read at startup. Compaction
+ * rewrites the log with only the latest, unexpired record for each key.
+ * <p>
+ * A record that is damaged is treated as missing, and is left out when the
+ * log is compacted.
+ *
+ * @author gideon
+ */
+public final class PersistentCache implements Closeable {
+
+    private static final int LOG_MAGIC = 0x48504c47;
+    private static final int INDEX_MAGIC = 0x48504958;
+    private static final int VERSION = 1;
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+    private static final int LOG_HEADER = 4 + 4 + 8;
+    private static final int INDEX_HEADER = 4 + 4 + 8 + 8 + 4;
+    private static final int RECORD_OVERHEAD = KEY_LENGTH + 8 + 4 + 4;
+    private static final int SLOT_SIZE = KEY_LENGTH + 8;
+
+    private final Path dir;
+    private final Duration ttl;
+    private final byte[] salt;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(PersistentCache::sha256);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private FileChannel log;
+    private long generation;
+    private long logSize;
+    private long garbage;
+    private MappedByteBuffer index;
+    private int indexSlots;
+    private int indexEntries;
+    private Map<ByteBuffer, Long> recent = new ConcurrentHashMap<>();
+    private Set<ByteBuffer> dropped = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Open a cache, creating it if it does not exist.
+     *
+     * @param dir The directory that holds the cache files
+     * @param ttl How long results are kept
+     * @return The cache
+     * @throws HaveIBeenPwndException Thrown if the cache cannot be opened
+     */
+    public static PersistentCache open(Path dir, Duration ttl) throws HaveIBeenPwndException {
+        try {
+            Files.createDirectories(dir);
+            return new PersistentCache(dir, ttl);
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(String.format("Cannot open cache '%s': %s", dir, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Get the number of keys in the cache, including expired ones that have
+     * not been compacted away yet.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int size = indexEntries;
+            for (ByteBuffer key : recent.keySet()) {
+                if (findInIndex(key.array()) < 0) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the size of the log file.
+     *
+     * @return The size in bytes
+     */
+    public long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            return logSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of lookups that found an unexpired result.
+     *
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that did not find an unexpired result.
+     *
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of damaged records found and of reads and writes that
+     * failed.
+     *
+     * @return The number of errors
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Rewrite the log with only the latest unexpired result for each key,
+     * and write a new index for it.
+     *
+     * @throws HaveIBeenPwndException Thrown if the cache cannot be compacted
+     */
+    public void compact() throws HaveIBeenPwndException {
+        lock.writeLock().lock();
+        try {
+            compactLog();
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(String.format("Cannot compact cache '%s': %s", dir, ex.getMessage()), ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Close the cache. The index is written so that the next open is fast,
+     * and the log is compacted first if more than half of it is replaced
+     * results.
+     *
+     * @throws IOException Thrown if the index cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!log.isOpen()) {
+                return;
+            }
+            if (garbage * 2 > logSize) {
+                compactLog();
+            } else if (!recent.isEmpty()) {
+                writeIndex(log, generation, logSize, entries());
+            }
+        } finally {
+            try {
+                log.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PersistentCache{dir=%s, size=%d, bytes=%d, hits=%d, misses=%d, errors=%d}", dir, size(), logSize, getHits(), getMisses(), getErrors());
+    }
+
+    /**
+     * Get a result.
+     *
+     * @param namespace The kind of result, for example "breachedaccount"
+     * @param key       The key, for example an account
+     * @return The value, or null if it is not cached, has expired or is
+     * damaged
+     * @throws HaveIBeenPwndException Thrown if the cache cannot be read
+     */
+    byte[] get(String namespace, String key) throws HaveIBeenPwndException {
+        byte[] hash = hash(namespace, key);
+        ByteBuffer wrapped = ByteBuffer.wrap(hash);
+        lock.readLock().lock();
+        try {
+            Long offset = recent.get(wrapped);
+            long pos = offset != null ? offset : (dropped.contains(wrapped) ? -1 : findInIndex(hash));
+            ByteBuffer record = pos < 0 ? null : readRecord(pos, hash);
+            if (pos >= 0 && record == null) {
+                // a damaged record: forget it so that it is read only once
+                errors.increment();
+                if (offset != null) {
+                    recent.remove(wrapped, offset);
+                } else {
+                    dropped.add(wrapped);
+                }
+            }
+            byte[] value = record == null ? null : value(record);
+            if (value == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return value;
+        } catch (IOException ex) {
+            errors.increment();
+            throw new HaveIBeenPwndException(String.format("Cannot read cache '%s': %s", dir, ex.getMessage()), ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Store a result.
+     *
+     * @param namespace The kind of result, for example "breachedaccount"
+     * @param key       The key, for example an account
+     * @param value     The value
+     * @throws HaveIBeenPwndException Thrown if the cache cannot be written
+     */
+    void put(String namespace, String key, byte[] value) throws HaveIBeenPwndException {
+        byte[] hash = hash(namespace, key);
+        lock.writeLock().lock();
+        try {
+            Long offset = recent.get(ByteBuffer.wrap(hash));
+            long old = offset != null ? offset : findInIndex(hash);
+            if (old >= LOG_HEADER && old + RECORD_OVERHEAD <= logSize) {
+                int length = readLength(old);
+                if (length >= 0 && old + RECORD_OVERHEAD + length <= logSize) {
+                    garbage += RECORD_OVERHEAD + length;
+                }
+            }
+            long pos = logSize;
+            logSize += append(log, pos, hash, System.currentTimeMillis() + ttl.toMillis(), value);
+            recent.put(ByteBuffer.wrap(hash), pos);
+        } catch (IOException ex) {
+            errors.increment();
+            throw new HaveIBeenPwndException(String.format("Cannot write cache '%s': %s", dir, ex.getMessage()), ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private PersistentCache(Path dir, Duration ttl) throws IOException {
+        this.dir = dir;
+        this.ttl = ttl;
+        this.salt = loadSalt(dir.resolve("salt"));
+        this.log = FileChannel.open(dir.resolve("cache.log"), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (log.size() < LOG_HEADER) {
+                generation = new SecureRandom().nextLong();
+                writeLogHeader(log, generation);
+                logSize = LOG_HEADER;
+            } else {
+                ByteBuffer header = readFully(log, 0, LOG_HEADER);
+                if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not a cache log");
+                }
+                generation = header.getLong(8);
+                logSize = log.size();
+            }
+            long from = openIndex();
+            scan(from);
+        } catch (IOException ex) {
+            log.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Map the index if it matches the log.
+     *
+     * @return The position in the log up to which the index is complete
+     */
+    private long openIndex() throws IOException {
+        index = null;
+        indexSlots = 0;
+        indexEntries = 0;
+        Path file = dir.resolve("cache.idx");
+        if (!Files.exists(file)) {
+            return LOG_HEADER;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < INDEX_HEADER) {
+                return LOG_HEADER;
+            }
+            ByteBuffer header = readFully(channel, 0, INDEX_HEADER);
+            long indexed = header.getLong(16);
+            int slots = header.getInt(24);
+            if (header.getInt(0) != INDEX_MAGIC || header.getInt(4) != VERSION || header.getLong(8) != generation
+                    || indexed > logSize || channel.size() != INDEX_HEADER + (long) slots * SLOT_SIZE) {
+                return LOG_HEADER;
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, INDEX_HEADER, (long) slots * SLOT_SIZE);
+            indexSlots = slots;
+            for (int slot = 0; slot < slots; ++slot) {
+                if (index.getLong(slot * SLOT_SIZE + KEY_LENGTH) != 0) {
+                    indexEntries++;
+                }
+            }
+            return indexed;
+        }
+    }
+
+    /**
+     * Read the records after the index. A record that is cut short or does
+     * not match its checksum ends the log, and is cut off.
+     */
+    private void scan(long from) throws IOException {
+        long pos = from;
+        ByteBuffer head = ByteBuffer.allocate(KEY_LENGTH + 8 + 4);
+        while (pos + RECORD_OVERHEAD <= logSize) {
+            head.clear();
+            readFully(log, pos, head);
+            int length = head.getInt(KEY_LENGTH + 8);
+            if (length < 0 || pos + RECORD_OVERHEAD + length > logSize) {
+                break;
+            }
+            byte[] key = Arrays.copyOf(head.array(), KEY_LENGTH);
+            if (readRecord(pos, key) == null) {
+                break;
+            }
+            Long old = recent.put(ByteBuffer.wrap(key), pos);
+            if (old != null || findInIndex(key) >= 0) {
+                garbage += RECORD_OVERHEAD + length;
+            }
+            pos += RECORD_OVERHEAD + length;
+        }
+        if (pos < logSize) {
+            log.truncate(pos);
+            logSize = pos;
+        }
+    }
+
+    private void compactLog() throws IOException {
+        Path tmp = dir.resolve("cache.log.tmp");
+        long now = System.currentTimeMillis();
+        long newGeneration = new SecureRandom().nextLong();
+        Map<ByteBuffer, Long> live = new HashMap<>();
+        long size = LOG_HEADER;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeLogHeader(out, newGeneration);
+            for (Map.Entry<ByteBuffer, Long> entry : entries().entrySet()) {
+                byte[] key = entry.getKey().array();
+                ByteBuffer record = readRecord(entry.getValue(), key);
+                if (record == null) {
+                    errors.increment();
+                } else if (record.getLong(KEY_LENGTH) > now) {
+                    byte[] value = new byte[record.getInt(KEY_LENGTH + 8)];
+                    record.position(KEY_LENGTH + 12);
+                    record.get(value);
+                    live.put(entry.getKey(), size);
+                    size += append(out, size, key, record.getLong(KEY_LENGTH), value);
+                }
+            }
+            out.force(true);
+            writeIndex(out, newGeneration, size, live);
+        }
+        log.close();
+        Files.move(tmp, dir.resolve("cache.log"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(dir.resolve("cache.log"), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        generation = newGeneration;
+        logSize = size;
+        garbage = 0;
+        recent = new ConcurrentHashMap<>();
+        dropped = ConcurrentHashMap.newKeySet();
+        openIndex();
+    }
+
+    /**
+     * Get the log position of every key, from the index and the records
+     * written after it.
+     */
+    private Map<ByteBuffer, Long> entries() {
+        Map<ByteBuffer, Long> entries = new HashMap<>();
+        if (index != null) {
+            for (int slot = 0; slot < indexSlots; ++slot) {
+                long offset = index.getLong(slot * SLOT_SIZE + KEY_LENGTH);
+                if (offset != 0) {
+                    byte[] key = new byte[KEY_LENGTH];
+                    for (int i = 0; i < KEY_LENGTH; ++i) {
+                        key[i] = index.get(slot * SLOT_SIZE + i);
+                    }
+                    entries.put(ByteBuffer.wrap(key), offset - 1);
+                }
+            }
+        }
+        entries.keySet().removeAll(dropped);
+        entries.putAll(recent);
+        return entries;
+    }
+
+    /**
+     * Write an open addressing hash table of keys to log positions. Positions
+     * are stored plus one, so that 0 marks an empty slot.
+     */
+    private void writeIndex(FileChannel logChannel, long logGeneration, long indexed, Map<ByteBuffer, Long> entries) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(16, entries.size() * 2 - 1)) << 1;
+        ByteBuffer table = ByteBuffer.allocate(INDEX_HEADER + slots * SLOT_SIZE);
+        table.putInt(INDEX_MAGIC).putInt(VERSION).putLong(logGeneration).putLong(indexed).putInt(slots);
+        for (Map.Entry<ByteBuffer, Long> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().array();
+            int slot = slot(key, slots);
+            while (table.getLong(INDEX_HEADER + slot * SLOT_SIZE + KEY_LENGTH) != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            int pos = INDEX_HEADER + slot * SLOT_SIZE;
+            for (int i = 0; i < KEY_LENGTH; ++i) {
+                table.put(pos + i, key[i]);
+            }
+            table.putLong(pos + KEY_LENGTH, entry.getValue() + 1);
+        }
+        logChannel.force(true);
+        Path tmp = dir.resolve("cache.idx.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            table.rewind();
+            while (table.hasRemaining()) {
+                out.write(table);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve("cache.idx"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long findInIndex(byte[] key) {
+        if (index == null) {
+            return -1;
+        }
+        int slot = slot(key, indexSlots);
+        while (true) {
+            int pos = slot * SLOT_SIZE;
+            long offset = index.getLong(pos + KEY_LENGTH);
+            if (offset == 0) {
+                return -1;
+            }
+            boolean match = true;
+            for (int i = 0; i < KEY_LENGTH && match; ++i) {
+                match = index.get(pos + i) == key[i];
+            }
+            if (match) {
+                return offset - 1;
+            }
+            slot = (slot + 1) & (indexSlots - 1);
+        }
+    }
+
+    /**
+     * Get the value of a record if it has not expired.
+     */
+    private static byte[] value(ByteBuffer record) {
+        if (record.getLong(KEY_LENGTH) <= System.currentTimeMillis()) {
+            return null;
+        }
+        byte[] value = new byte[record.getInt(KEY_LENGTH + 8)];
+        record.position(KEY_LENGTH + 12);
+        record.get(value);
+        return value;
+    }
+
+    /**
+     * Read a record and check its key and checksum.
+     *
+     * @return The record, or null if it is damaged or not for the key
+     */
+    private ByteBuffer readRecord(long pos, byte[] key) throws IOException {
+        if (pos < LOG_HEADER || pos + RECORD_OVERHEAD > logSize) {
+            return null;
+        }
+        int length = readLength(pos);
+        if (length < 0 || pos + RECORD_OVERHEAD + length > logSize) {
+            return null;
+        }
+        ByteBuffer record = readFully(log, pos, RECORD_OVERHEAD + length);
+        for (int i = 0; i < KEY_LENGTH; ++i) {
+            if (record.get(i) != key[i]) {
+                return null;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_OVERHEAD - 4 + length);
+        if ((int) crc.getValue() != record.getInt(RECORD_OVERHEAD - 4 + length)) {
+            return null;
+        }
+        return record;
+    }
+
+    private int readLength(long pos) throws IOException {
+        return readFully(log, pos + KEY_LENGTH + 8, 4).getInt(0);
+    }
+
+    private static long append(FileChannel channel, long pos, byte[] key, long expires, byte[] value) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + value.length);
+        record.put(key).putLong(expires).putInt(value.length).put(value);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+        long at = pos;
+        while (record.hasRemaining()) {
+            at += channel.write(record, at);
+        }
+        return record.limit();
+    }
+
+    private static void writeLogHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation);
+        header.flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long pos, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        readFully(channel, pos, buf);
+        return buf;
+    }
+
+    private static void readFully(FileChannel channel, long pos, ByteBuffer buf) throws IOException {
+        long at = pos;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, at);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            at += read;
+        }
+    }
+
+    private static int slot(byte[] key, int slots) {
+        int hash = ((key[0] & 0xFF) << 24) | ((key[1] & 0xFF) << 16) | ((key[2] & 0xFF) << 8) | (key[3] & 0xFF);
+        return hash & (slots - 1);
+    }
+
+    private byte[] hash(String namespace, String key) {
+        MessageDigest digest = digests.get();
+        digest.update(salt);
+        digest.update(namespace.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static byte[] loadSalt(Path file) throws IOException {
+        if (Files.exists(file)) {
+            byte[] salt = Files.readAllBytes(file);
+            if (salt.length == SALT_LENGTH) {
+                return salt;
+            }
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        Path tmp = file.resolveSibling("salt.tmp");
+        Files.write(tmp, salt);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // a new salt makes all existing keys unreachable
+        Files.deleteIfExists(file.resolveSibling("cache.log"));
+        Files.deleteIfExists(file.resolveSibling("cache.idx"));
+        return salt;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks how often each password range is looked up, so that the most
+ * popular ranges can be loaded into the range cache when an application
+ * starts, before the first users log in.
+ * <p>
+ * Lookups are counted exactly, with one counter for each of the 16^5
+ * ranges, which takes 4MB. The counts are saved to a file in the background,
+ * and halved after each save so that they follow recent traffic.
+ *
+ * @author gideon
+ */
+public final class PrefixPopularity implements Closeable {
+
+    private static final int MAGIC = 0x50504f50;
+    private static final int VERSION = 2;
+    private static final int PREFIXES = PwnedPasswordsCorpus.PREFIXES;
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+
+    private final Path file;
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(PREFIXES);
+    private final LongAdder recorded = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+    private volatile HaveIBeenPwndException lastError;
+
+    /**
+     * Open a tracker, loading the counts saved in its file if there is one.
+     *
+     * @param file         The file the counts are saved in
+     * @param saveInterval How often the counts are saved
+     * @return The tracker
+     * @throws HaveIBeenPwndException Thrown if the file exists but cannot be
+     *                                read
+     */
+    public static PrefixPopularity open(Path file, Duration saveInterval) throws HaveIBeenPwndException {
+        PrefixPopularity popularity = new PrefixPopularity(file, saveInterval);
+        if (Files.exists(file)) {
+            try {
+                popularity.load();
+            } catch (IOException ex) {
+                popularity.scheduler.shutdownNow();
+                throw new HaveIBeenPwndException(String.format("Cannot read prefix popularity from '%s': %s", file, ex.getMessage()), ex);
+            }
+        }
+        return popularity;
+    }
+
+    /**
+     * Count a lookup of a range.
+     *
+     * @param hash5 The 5 character prefix of the range
+     */
+    public void record(String hash5) {
+        if (hash5.length() < 5) {
+            return;
+        }
+        int prefix;
+        try {
+            prefix = Hex.parse(hash5, 5);
+        } catch (IllegalArgumentException ex) {
+            return;
+        }
+        counters.incrementAndGet(prefix);
+        recorded.increment();
+    }
+
+    /**
+     * Get how often a range was looked up, with the counts halved at each
+     * save.
+     *
+     * @param hash5 The 5 character prefix of the range
+     * @return The count
+     */
+    public int getCount(String hash5) {
+        return counters.get(Hex.parse(hash5, 5));
+    }
+
+    /**
+     * Get the most popular ranges.
+     *
+     * @param n The number of ranges
+     * @return The 5 character prefixes of at most n ranges, most popular first
+     */
+    public List<String> getHottest(int n) {
+        PriorityQueue<long[]> top = new PriorityQueue<>(Math.max(1, n), (a, b) -> Long.compare(a[0], b[0]));
+        for (int prefix = 0; prefix < PREFIXES && n > 0; ++prefix) {
+            int count = counters.get(prefix);
+            if (count > 0 && (top.size() < n || count > top.peek()[0])) {
+                top.add(new long[]{count, prefix});
+                if (top.size() > n) {
+                    top.poll();
+                }
+            }
+        }
+        List<String> res = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            res.add(Hex.prefix((int) top.poll()[1]));
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    /**
+     * Get the number of lookups recorded since the tracker was opened.
+     *
+     * @return The number of lookups
+     */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * Get the error from the last background save.
+     *
+     * @return The error, or null if the last save worked
+     */
+    public HaveIBeenPwndException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Save the counts to the file, and then halve them.
+     *
+     * @throws HaveIBeenPwndException Thrown if the file cannot be written
+     */
+    public synchronized void save() throws HaveIBeenPwndException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 4 * PREFIXES);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(PREFIXES);
+        for (int i = 0; i < PREFIXES; ++i) {
+            buf.putInt(counters.get(i));
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, buf.array());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(String.format("Cannot save prefix popularity to '%s': %s", file, ex.getMessage()), ex);
+        }
+        for (int i = 0; i < PREFIXES; ++i) {
+            int count;
+            do {
+                count = counters.get(i);
+            } while (!counters.compareAndSet(i, count, count >>> 1));
+        }
+    }
+
+    /**
+     * Stop saving in the background and save the counts one last time.
+     *
+     * @throws IOException Thrown if the counts cannot be saved
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        try {
+            save();
+        } catch (HaveIBeenPwndException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PrefixPopularity{file=%s, recorded=%d}", file, getRecorded());
+    }
+
+    private PrefixPopularity(Path file, Duration saveInterval) {
+        this.file = file;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hibp-prefix-popularity");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = saveInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+                lastError = null;
+            } catch (HaveIBeenPwndException ex) {
+                lastError = ex;
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+            throw new IOException("Not a prefix popularity file");
+        }
+        if (buf.getInt() != VERSION || buf.getInt() != PREFIXES || buf.remaining() != 4 * PREFIXES) {
+            throw new IOException("Unsupported prefix popularity file");
+        }
+        for (int i = 0; i < PREFIXES; ++i) {
+            counters.set(i, buf.getInt());
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A local copy of the Pwned Passwords data, used to answer password checks
+ * without calling the remote API.
+ * <p>
+ * The corpus is a binary file that is memory-mapped when opened. It has this
+ * layout (all numbers are big endian):
+ * <pre>
+ * int    magic ("PPWC")
+ * int    version
+ * int    hash length in bytes (20 for SHA1, 16 for NTLM)
+ * long   number of records
+ * long[] index of 16^5 + 1 entries: the first record for each 5 digit prefix
+ * record[] records sorted by hash: the hash bytes followed by an int count
+ * </pre>
+ * Looking up a hash is a binary search over the records for its prefix, and
+ * does not allocate memory.
+ *
+ * @author gideon
+ */
+public final class PwnedPasswordsCorpus implements Closeable {
+
+    static final int MAGIC = 0x50505743;
+    static final int VERSION = 1;
+    static final int PREFIXES = 1 << 20;
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+    static final long DATA_OFFSET = HEADER_SIZE + 8L * (PREFIXES + 1);
+
+    private static final long MAX_CHUNK = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final Instant built;
+    private final int hashLength;
+    private final int recordSize;
+    private final long records;
+    private final ByteBuffer index;
+    private final int[] chunkPrefix;
+    private final long[] chunkRecord;
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Open a corpus file.
+     *
+     * @param file The file to open
+     * @return The corpus
+     * @throws HaveIBeenPwndException Thrown if the file cannot be read or is
+     *                                not a valid corpus
+     */
+    public static PwnedPasswordsCorpus open(Path file) throws HaveIBeenPwndException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            return new PwnedPasswordsCorpus(channel, Files.getLastModifiedTime(file).toInstant());
+        } catch (IOException ex) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex2) {
+                    ex.addSuppressed(ex2);
+                }
+            }
+            throw new HaveIBeenPwndException(String.format("Cannot open corpus '%s': %s", file, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Get the time the corpus file was built, which is the last time it was
+     * written.
+     *
+     * @return The build time
+     */
+    public Instant getBuilt() {
+        return built;
+    }
+
+    /**
+     * Get the length in bytes of the hashes in this corpus.
+     *
+     * @return The hash length
+     */
+    public int getHashLength() {
+        return hashLength;
+    }
+
+    /**
+     * Get the number of hashes in this corpus.
+     *
+     * @return The number of hashes
+     */
+    public long size() {
+        return records;
+    }
+
+    /**
+     * Get the number of times a hash has been seen.
+     *
+     * @param hash The full hash, hex encoded
+     * @return The count, or 0 if the hash is not in the corpus
+     */
+    public int getCount(CharSequence hash) {
+        if (hash.length() != hashLength * 2) {
+            return 0;
+        }
+        int prefix = Hex.parse(hash, 5);
+        int chunk = chunkFor(prefix);
+        ByteBuffer buf = chunks[chunk];
+        long base = chunkRecord[chunk];
+        long lo = index.getLong(prefix * 8) - base;
+        long hi = index.getLong((prefix + 1) * 8) - base - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int pos = (int) (mid * recordSize);
+            int cmp = compare(buf, pos, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return buf.getInt(pos + hashLength);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of times a hash has been seen.
+     *
+     * @param hash The full binary hash
+     * @return The count, or 0 if the hash is not in the corpus
+     */
+    public int getCount(byte[] hash) {
+        if (hash.length != hashLength) {
+            return 0;
+        }
+        int prefix = Hex.prefix(hash);
+        int chunk = chunkFor(prefix);
+        ByteBuffer buf = chunks[chunk];
+        long base = chunkRecord[chunk];
+        long lo = index.getLong(prefix * 8) - base;
+        long hi = index.getLong((prefix + 1) * 8) - base - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int pos = (int) (mid * recordSize);
+            int cmp = compare(buf, pos, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return buf.getInt(pos + hashLength);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get all the hashes that start with the given prefix, in the same form as
+     * the Pwned Passwords range API returns them.
+     *
+     * @param hash5 The first 5 digits of the hash
+     * @return The hash suffixes and their counts
+     */
+    public List<PwnedHash> searchByRange(String hash5) {
+        int prefix = Hex.parse(hash5, 5);
+        int chunk = chunkFor(prefix);
+        ByteBuffer buf = chunks[chunk];
+        long base = chunkRecord[chunk];
+        long from = index.getLong(prefix * 8) - base;
+        long to = index.getLong((prefix + 1) * 8) - base;
+        if (from == to) {
+            return Collections.emptyList();
+        }
+        List<PwnedHash> res = new ArrayList<>((int) (to - from));
+        char[] suffix = new char[hashLength * 2 - 5];
+        for (long rec = from; rec < to; ++rec) {
+            int pos = (int) (rec * recordSize);
+            for (int i = 5; i < hashLength * 2; ++i) {
+                suffix[i - 5] = Hex.digit(nibble(buf, pos, i));
+            }
+            res.add(new PwnedHash(new String(suffix), buf.getInt(pos + hashLength)));
+        }
+        return res;
+    }
+
+    /**
+     * Write a range as the Pwned Passwords range API returns it, one
+     * "SUFFIX:COUNT" line per hash, each ending in CRLF.
+     *
+     * @param prefix The 5 digit prefix of the range
+     * @param out    The stream to write to
+     * @return The number of lines written
+     * @throws IOException Thrown if the range cannot be written
+     */
+    int writeRange(int prefix, OutputStream out) throws IOException {
+        int chunk = chunkFor(prefix);
+        ByteBuffer buf = chunks[chunk];
+        long base = chunkRecord[chunk];
+        long from = index.getLong(prefix * 8) - base;
+        long to = index.getLong((prefix + 1) * 8) - base;
+        byte[] line = new byte[hashLength * 2 - 5 + 1 + 10 + 2];
+        for (long rec = from; rec < to; ++rec) {
+            int pos = (int) (rec * recordSize);
+            int len = 0;
+            for (int i = 5; i < hashLength * 2; ++i) {
+                line[len++] = (byte) Hex.digit(nibble(buf, pos, i));
+            }
+            line[len++] = ':';
+            String count = Integer.toString(buf.getInt(pos + hashLength));
+            for (int i = 0; i < count.length(); ++i) {
+                line[len++] = (byte) count.charAt(i);
+            }
+            line[len++] = '\r';
+            line[len++] = '\n';
+            out.write(line, 0, len);
+        }
+        return (int) (to - from);
+    }
+
+    /**
+     * Visit the first 16 bytes of every hash in the corpus, in order.
+     *
+     * @param visitor The visitor
+     */
+    void forEachHash(HashVisitor visitor) {
+        for (int chunk = 0; chunk < chunks.length; ++chunk) {
+            ByteBuffer buf = chunks[chunk];
+            for (int pos = 0; pos + recordSize <= buf.limit(); pos += recordSize) {
+                visitor.visit(buf.getLong(pos), buf.getLong(pos + 8));
+            }
+        }
+    }
+
+    /**
+     * Receives hashes from forEachHash().
+     */
+    interface HashVisitor {
+
+        void visit(long high, long low);
+
+    }
+
+    /**
+     * Close the corpus. The mapped memory is released once it is garbage
+     * collected.
+     *
+     * @throws IOException Thrown if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private PwnedPasswordsCorpus(FileChannel channel, Instant built) throws IOException {
+        this.channel = channel;
+        this.built = built;
+        if (channel.size() < DATA_OFFSET) {
+            throw new IOException("File is too short");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a pwned passwords corpus");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported corpus version " + header.getInt(4));
+        }
+        hashLength = header.getInt(8);
+        recordSize = hashLength + 4;
+        records = header.getLong(12);
+        if (channel.size() != DATA_OFFSET + records * recordSize) {
+            throw new IOException("Corpus size does not match its header");
+        }
+        index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, DATA_OFFSET - HEADER_SIZE);
+        // Map the records in chunks of less than 2GB, split on prefix
+        // boundaries so that the records for one prefix are always in the same chunk.
+        List<Integer> prefixes = new ArrayList<>();
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+        int first = 0;
+        long firstRecord = 0;
+        for (int prefix = 0; prefix < PREFIXES; ++prefix) {
+            long end = index.getLong((prefix + 1) * 8);
+            if ((end - firstRecord) * recordSize > MAX_CHUNK && prefix > first) {
+                buffers.add(map(firstRecord, index.getLong(prefix * 8)));
+                prefixes.add(first);
+                first = prefix;
+                firstRecord = index.getLong(prefix * 8);
+            }
+        }
+        buffers.add(map(firstRecord, records));
+        prefixes.add(first);
+        chunks = buffers.toArray(new MappedByteBuffer[0]);
+        chunkPrefix = new int[prefixes.size()];
+        chunkRecord = new long[prefixes.size()];
+        for (int i = 0; i < chunkPrefix.length; ++i) {
+            chunkPrefix[i] = prefixes.get(i);
+            chunkRecord[i] = index.getLong(chunkPrefix[i] * 8);
+        }
+    }
+
+    private MappedByteBuffer map(long fromRecord, long toRecord) throws IOException {
+        long size = (toRecord - fromRecord) * recordSize;
+        if (size > MAX_CHUNK) {
+            throw new IOException("Too many hashes for one prefix");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, DATA_OFFSET + fromRecord * recordSize, size);
+    }
+
+    private int chunkFor(int prefix) {
+        int idx = Arrays.binarySearch(chunkPrefix, prefix);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    /**
+     * Compare the hash in the record at pos to the given hex hash. The first 5
+     * digits are skipped since all records for a prefix share them.
+     */
+    private int compare(ByteBuffer buf, int pos, CharSequence hash) {
+        for (int i = 5; i < hashLength * 2; ++i) {
+            int diff = nibble(buf, pos, i) - Hex.value(hash.charAt(i));
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private int compare(ByteBuffer buf, int pos, byte[] hash) {
+        for (int i = 2; i < hashLength; ++i) {
+            int diff = (buf.get(pos + i) & 0xFF) - (hash[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private static int nibble(ByteBuffer buf, int pos, int digit) {
+        int b = buf.get(pos + digit / 2);
+        return (digit & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+    }
+
+}
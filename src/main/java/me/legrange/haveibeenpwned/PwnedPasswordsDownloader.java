@@ -0,0 +1,290 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Downloads all the ranges from the Pwned Passwords API and builds a corpus
+ * that can be used for offline password checks.
+ * <p>
+ * Every range is stored in its own partition file in the work directory as
+ * soon as it is downloaded, so an interrupted download resumes where it
+ * stopped. The ETag and Last-Modified values of each range are kept with it,
+ * so that a refresh only downloads ranges that have changed.
+ * <p>
+ * A partition file holds the ETag and Last-Modified values (as modified UTF-8)
+ * followed by records made up of the hash (20 bytes for SHA1, 16 for NTLM)
+ * and the count as a varint.
+ *
+ * @author gideon
+ */
+public final class PwnedPasswordsDownloader {
+
+    private final PwnedPasswordsService service;
+    private final Path workDir;
+    private final int hashLength;
+    private final String mode;
+    private int parallelism = 16;
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    PwnedPasswordsDownloader(PwnedPasswordsService service, Path workDir, boolean ntlm) {
+        this.service = service;
+        this.workDir = workDir;
+        this.hashLength = ntlm ? PasswordHasher.NTLM_LENGTH : PasswordHasher.SHA1_LENGTH;
+        this.mode = ntlm ? "ntlm" : null;
+    }
+
+    /**
+     * Set how many ranges are downloaded at the same time.
+     *
+     * @param parallelism The number of concurrent downloads
+     * @return The downloader
+     */
+    public PwnedPasswordsDownloader withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Download all the ranges that are not yet in the work directory.
+     *
+     * @return The number of ranges downloaded
+     * @throws HaveIBeenPwndException Thrown if a range cannot be downloaded
+     */
+    public long download() throws HaveIBeenPwndException {
+        return run(false);
+    }
+
+    /**
+     * Download all ranges that have changed since they were last downloaded,
+     * as well as those not yet in the work directory.
+     *
+     * @return The number of ranges downloaded
+     * @throws HaveIBeenPwndException Thrown if a range cannot be downloaded
+     */
+    public long refresh() throws HaveIBeenPwndException {
+        return run(true);
+    }
+
+    /**
+     * Build a corpus file from the downloaded ranges.
+     *
+     * @param corpusFile The corpus file to write
+     * @throws HaveIBeenPwndException Thrown if a range is missing or the corpus
+     *                                cannot be written
+     */
+    public void assemble(Path corpusFile) throws HaveIBeenPwndException {
+        List<byte[]> hashes = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        try (CorpusWriter writer = new CorpusWriter(corpusFile, hashLength)) {
+            for (int prefix = 0; prefix < PwnedPasswordsCorpus.PREFIXES; ++prefix) {
+                hashes.clear();
+                counts.clear();
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partition(prefix))))) {
+                    in.readUTF();
+                    in.readUTF();
+                    int first;
+                    while ((first = in.read()) >= 0) {
+                        byte[] hash = new byte[hashLength];
+                        hash[0] = (byte) first;
+                        in.readFully(hash, 1, hashLength - 1);
+                        hashes.add(hash);
+                        counts.add(readVarint(in));
+                    }
+                } catch (NoSuchFileException ex) {
+                    throw new HaveIBeenPwndException(String.format("Range %s has not been downloaded", Hex.prefix(prefix)), ex);
+                }
+                Integer[] order = new Integer[hashes.size()];
+                for (int i = 0; i < order.length; ++i) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> compare(hashes.get(a), hashes.get(b)));
+                for (int i : order) {
+                    writer.write(hashes.get(i), counts.get(i));
+                }
+            }
+            writer.finish();
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(String.format("Cannot write corpus '%s': %s", corpusFile, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Get the number of ranges downloaded.
+     *
+     * @return The number of ranges
+     */
+    public long getDownloaded() {
+        return downloaded.get();
+    }
+
+    /**
+     * Get the number of ranges that were checked but had not changed.
+     *
+     * @return The number of ranges
+     */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * Get the number of ranges that were skipped because they had already
+     * been downloaded.
+     *
+     * @return The number of ranges
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    private long run(boolean refresh) throws HaveIBeenPwndException {
+        long before = downloaded.get();
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<HaveIBeenPwndException> error = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < parallelism; ++i) {
+            Thread worker = new Thread(() -> {
+                int prefix;
+                while (error.get() == null && (prefix = next.getAndIncrement()) < PwnedPasswordsCorpus.PREFIXES) {
+                    try {
+                        fetch(prefix, refresh);
+                    } catch (HaveIBeenPwndException ex) {
+                        error.compareAndSet(null, ex);
+                    }
+                }
+            }, "pwned-passwords-download-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException ex) {
+            error.compareAndSet(null, new HaveIBeenPwndException("Download interrupted", ex));
+            workers.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return downloaded.get() - before;
+    }
+
+    private void fetch(int prefix, boolean refresh) throws HaveIBeenPwndException {
+        String hash5 = Hex.prefix(prefix);
+        Path file = partition(prefix);
+        String etag = null;
+        String lastModified = null;
+        if (Files.exists(file)) {
+            if (!refresh) {
+                skipped.incrementAndGet();
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                etag = emptyToNull(in.readUTF());
+                lastModified = emptyToNull(in.readUTF());
+            } catch (IOException ex) {
+                // a damaged partition is downloaded again
+            }
+        }
+        try {
+            Response<ResponseBody> res = service.downloadRange(hash5, mode, etag, lastModified).execute();
+            try (ResponseBody body = res.isSuccessful() ? res.body() : res.errorBody()) {
+                if (res.code() == 304) {
+                    unchanged.incrementAndGet();
+                    return;
+                }
+                if (!res.isSuccessful()) {
+                    throw new HaveIBeenPwndException(String.format("Error downloading range %s: HTTP code %d", hash5, res.code()));
+                }
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeUTF(nullToEmpty(res.headers().get("ETag")));
+                    out.writeUTF(nullToEmpty(res.headers().get("Last-Modified")));
+                    RangeParser.read(hash5, hashLength, body.source(), (hash, count) -> {
+                        out.write(hash);
+                        writeVarint(out, count);
+                    });
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                downloaded.incrementAndGet();
+            }
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(String.format("Error downloading range %s: %s", hash5, ex.getMessage()), ex);
+        }
+    }
+
+    private int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < hashLength; ++i) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private Path partition(int prefix) {
+        String hash5 = Hex.prefix(prefix);
+        return workDir.resolve(hash5.substring(0, 2)).resolve(hash5 + ".range");
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated count");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Count is too long");
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+}
@@ -0,0 +1,284 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * A blocked Bloom filter over all the pwned password hashes, used to answer
+ * "not pwned" without fetching a range. A negative answer is always right;
+ * a positive answer is wrong at about the false positive rate the filter was
+ * built with, and is confirmed against the range.
+ * <p>
+ * A negative answer is only right for the corpus the filter was built from.
+ * Passwords added to Pwned Passwords since then are reported as not pwned,
+ * even when the range would be fetched from the live API, so rebuild the
+ * filter whenever the corpus is refreshed. {@link #getCorpusBuilt()} tells
+ * how old it is.
+ * <p>
+ * The filter is a file that is memory-mapped when opened, so it does not use
+ * heap memory. It has a 64 byte header (magic "PPWF", version, number of hash
+ * functions, number of blocks, number of hashes and the time the corpus was
+ * built) followed by 64 byte blocks
+ * of bits. Each hash sets its bits in one block, so a lookup reads a single
+ * cache line. Since the hashes are already uniformly distributed, their own
+ * bytes are used to pick the block and the bits.
+ *
+ * @author gideon
+ */
+public final class PwnedPasswordsFilter implements Closeable {
+
+    private static final int MAGIC = 0x50505746;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_BITS = BLOCK_SIZE * 8;
+    private static final int CHUNK_SHIFT = 24;
+    private static final long CHUNK_BLOCKS = 1L << CHUNK_SHIFT;
+    private static final int MAX_HASH_FUNCTIONS = 16;
+    /**
+     * Keeping all the bits for a hash in one block skews the load between
+     * blocks, so the filter is made bigger than a plain Bloom filter to keep
+     * to the wanted false positive rate.
+     */
+    private static final double BLOCK_OVERHEAD = 1.2;
+
+    private final FileChannel channel;
+    private final int hashFunctions;
+    private final long blocks;
+    private final long count;
+    private final Instant corpusBuilt;
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Build a filter file from a corpus.
+     *
+     * @param corpus            The corpus holding all the hashes
+     * @param falsePositiveRate The wanted false positive rate, for example
+     *                          0.01. Lower rates make bigger filters.
+     * @param file              The filter file to write
+     * @return The filter, opened from the new file
+     * @throws HaveIBeenPwndException Thrown if the filter cannot be written
+     */
+    public static PwnedPasswordsFilter create(PwnedPasswordsCorpus corpus, double falsePositiveRate, Path file) throws HaveIBeenPwndException {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        long n = Math.max(1, corpus.size());
+        double bits = -n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        int hashFunctions = (int) Math.max(1, Math.min(MAX_HASH_FUNCTIONS, Math.round(bits / n * Math.log(2))));
+        long blocks = Math.max(1, (long) Math.ceil(bits * BLOCK_OVERHEAD / BLOCK_BITS));
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(hashFunctions).putLong(blocks).putLong(corpus.size())
+                        .putLong(corpus.getBuilt().toEpochMilli());
+                header.rewind();
+                channel.write(header, 0);
+                MappedByteBuffer[] chunks = map(channel, FileChannel.MapMode.READ_WRITE, blocks);
+                corpus.forEachHash((high, low) -> set(chunks, blocks, hashFunctions, high, low));
+                for (MappedByteBuffer chunk : chunks) {
+                    chunk.force();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ex2) {
+                ex.addSuppressed(ex2);
+            }
+            throw new HaveIBeenPwndException(String.format("Cannot write filter '%s': %s", file, ex.getMessage()), ex);
+        }
+        return open(file);
+    }
+
+    /**
+     * Open a filter file.
+     *
+     * @param file The file to open
+     * @return The filter
+     * @throws HaveIBeenPwndException Thrown if the file cannot be read or is
+     *                                not a valid filter
+     */
+    public static PwnedPasswordsFilter open(Path file) throws HaveIBeenPwndException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            return new PwnedPasswordsFilter(channel);
+        } catch (IOException ex) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex2) {
+                    ex.addSuppressed(ex2);
+                }
+            }
+            throw new HaveIBeenPwndException(String.format("Cannot open filter '%s': %s", file, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Check if a hash might be pwned.
+     *
+     * @param hash The full hash, hex encoded
+     * @return False if the hash is definitely not pwned, true if it might be
+     */
+    public boolean mightContain(CharSequence hash) {
+        if (hash.length() < 32) {
+            return true;
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 16; ++i) {
+            high = (high << 4) | Hex.value(hash.charAt(i));
+            low = (low << 4) | Hex.value(hash.charAt(i + 16));
+        }
+        return mightContain(high, low);
+    }
+
+    /**
+     * Check if a hash might be pwned.
+     *
+     * @param hash The full binary hash
+     * @return False if the hash is definitely not pwned, true if it might be
+     */
+    public boolean mightContain(byte[] hash) {
+        if (hash.length < 16) {
+            return true;
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; ++i) {
+            high = (high << 8) | (hash[i] & 0xFF);
+            low = (low << 8) | (hash[i + 8] & 0xFF);
+        }
+        return mightContain(high, low);
+    }
+
+    /**
+     * Get the number of hashes the filter was built from.
+     *
+     * @return The number of hashes
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Get the time the corpus the filter was built from was built. Passwords
+     * pwned after this time are not in the filter.
+     *
+     * @return The build time of the corpus
+     */
+    public Instant getCorpusBuilt() {
+        return corpusBuilt;
+    }
+
+    /**
+     * Get the size of the filter.
+     *
+     * @return The size in bytes
+     */
+    public long sizeInBytes() {
+        return blocks * BLOCK_SIZE;
+    }
+
+    /**
+     * Get the expected false positive rate of a plain Bloom filter with the
+     * same size and number of hashes.
+     *
+     * @return The false positive rate
+     */
+    public double getFalsePositiveRate() {
+        double bitsPerHash = (double) blocks * BLOCK_BITS / Math.max(1, count);
+        return Math.pow(1 - Math.exp(-hashFunctions / bitsPerHash), hashFunctions);
+    }
+
+    /**
+     * Close the filter. The mapped memory is released once it is garbage
+     * collected.
+     *
+     * @throws IOException Thrown if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private PwnedPasswordsFilter(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < HEADER_SIZE) {
+            throw new IOException("File is too short");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a pwned passwords filter");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported filter version " + header.getInt(4));
+        }
+        hashFunctions = header.getInt(8);
+        blocks = header.getLong(12);
+        count = header.getLong(20);
+        corpusBuilt = Instant.ofEpochMilli(header.getLong(28));
+        if (channel.size() != HEADER_SIZE + blocks * BLOCK_SIZE) {
+            throw new IOException("Filter size does not match its header");
+        }
+        chunks = map(channel, FileChannel.MapMode.READ_ONLY, blocks);
+    }
+
+    private boolean mightContain(long high, long low) {
+        long block = Long.remainderUnsigned(high, blocks);
+        ByteBuffer chunk = chunks[(int) (block >>> CHUNK_SHIFT)];
+        int base = (int) (block & (CHUNK_BLOCKS - 1)) * BLOCK_SIZE;
+        int a = (int) low;
+        int b = (int) (low >>> 32) | 1;
+        for (int i = 0; i < hashFunctions; ++i) {
+            int bit = (a + i * b) & (BLOCK_BITS - 1);
+            if ((chunk.get(base + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void set(MappedByteBuffer[] chunks, long blocks, int hashFunctions, long high, long low) {
+        long block = Long.remainderUnsigned(high, blocks);
+        ByteBuffer chunk = chunks[(int) (block >>> CHUNK_SHIFT)];
+        int base = (int) (block & (CHUNK_BLOCKS - 1)) * BLOCK_SIZE;
+        int a = (int) low;
+        int b = (int) (low >>> 32) | 1;
+        for (int i = 0; i < hashFunctions; ++i) {
+            int bit = (a + i * b) & (BLOCK_BITS - 1);
+            int pos = base + (bit >>> 3);
+            chunk.put(pos, (byte) (chunk.get(pos) | (1 << (bit & 7))));
+        }
+    }
+
+    /**
+     * Map the blocks in chunks of 1GB.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long blocks) throws IOException {
+        int count = (int) ((blocks + CHUNK_BLOCKS - 1) >>> CHUNK_SHIFT);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            long first = i * CHUNK_BLOCKS;
+            long size = Math.min(CHUNK_BLOCKS, blocks - first) * BLOCK_SIZE;
+            chunks[i] = channel.map(mode, HEADER_SIZE + first * BLOCK_SIZE, size);
+        }
+        return chunks;
+    }
+
+}
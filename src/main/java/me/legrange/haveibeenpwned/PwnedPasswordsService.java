@@ -1,9 +1,12 @@
 package me.legrange.haveibeenpwned;
 
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Header;
 import retrofit2.http.Path;
+import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 /**
  *
@@ -11,7 +14,17 @@ import retrofit2.http.Path;
  */
 interface PwnedPasswordsService {
 
+    @Streaming
     @GET("range/{hash5}")
-    Call<String> searchByRange(@Path("hash5") String hash5, @Header("Add-Padding") boolean addPadding);
+    Call<ResponseBody> searchByRange(@Path("hash5") String hash5, @Header("Add-Padding") boolean addPadding);
+
+    @Streaming
+    @GET("range/{hash5}?mode=ntlm")
+    Call<ResponseBody> searchByRangeNtlm(@Path("hash5") String hash5, @Header("Add-Padding") boolean addPadding);
+
+    @Streaming
+    @GET("range/{hash5}")
+    Call<ResponseBody> downloadRange(@Path("hash5") String hash5, @Query("mode") String mode,
+            @Header("If-None-Match") String etag, @Header("If-Modified-Since") String lastModified);
 
 }
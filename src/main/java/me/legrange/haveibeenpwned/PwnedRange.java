@@ -0,0 +1,236 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The hashes returned by the Pwned Passwords API for one 5 digit prefix,
+ * stored in a compact form.
+ * <p>
+ * The hashes are kept in one sorted byte array with the counts in an int
+ * array, so a range of about 800 hashes takes up less than 20KB and checking a
+ * hash is a binary search.
+ *
+ * @author gideon
+ */
+public final class PwnedRange {
+
+    /**
+     * The first bytes of a hash are the same for all hashes in a range and
+     * are not stored.
+     */
+    private static final int SKIP = 2;
+    private static final int OVERHEAD = 64;
+
+    private final String prefix;
+    private final int hashLength;
+    private final int suffixLength;
+    private final byte[] suffixes;
+    private final int[] counts;
+
+    /**
+     * Get the 5 digit prefix of the hashes in this range.
+     *
+     * @return The prefix
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Get the number of hashes in this range.
+     *
+     * @return The number of hashes
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * Get the approximate memory used by this range.
+     *
+     * @return The size in bytes
+     */
+    public long sizeInBytes() {
+        return OVERHEAD + suffixes.length + 4L * counts.length;
+    }
+
+    /**
+     * Get the number of times a hash has been seen.
+     *
+     * @param hash The full hash, hex encoded
+     * @return The count, or 0 if the hash is not in this range
+     */
+    public int getCount(CharSequence hash) {
+        if (hash.length() != hashLength * 2) {
+            return 0;
+        }
+        for (int i = 0; i < 5; ++i) {
+            if (Hex.value(hash.charAt(i)) != Hex.value(prefix.charAt(i))) {
+                return 0;
+            }
+        }
+        int lo = 0;
+        int hi = counts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return counts[mid];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of times a hash has been seen.
+     *
+     * @param hash The full binary hash
+     * @return The count, or 0 if the hash is not in this range
+     */
+    public int getCount(byte[] hash) {
+        if (hash.length != hashLength || Hex.prefix(hash) != Hex.parse(prefix, 5)) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = counts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return counts[mid];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the hashes in the form the Pwned Passwords API returns them, with
+     * the prefix removed.
+     *
+     * @return The hashes
+     */
+    public List<PwnedHash> toList() {
+        List<PwnedHash> res = new ArrayList<>(counts.length);
+        char[] suffix = new char[hashLength * 2 - 5];
+        for (int i = 0; i < counts.length; ++i) {
+            for (int digit = 5; digit < hashLength * 2; ++digit) {
+                suffix[digit - 5] = Hex.digit(nibble(i, digit));
+            }
+            res.add(new PwnedHash(new String(suffix), counts[i]));
+        }
+        return res;
+    }
+
+    private PwnedRange(String prefix, int hashLength, byte[] suffixes, int[] counts) {
+        this.prefix = prefix;
+        this.hashLength = hashLength;
+        this.suffixLength = hashLength - SKIP;
+        this.suffixes = suffixes;
+        this.counts = counts;
+    }
+
+    private int compare(int entry, CharSequence hash) {
+        for (int digit = 5; digit < hashLength * 2; ++digit) {
+            int diff = nibble(entry, digit) - Hex.value(hash.charAt(digit));
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private int compare(int entry, byte[] hash) {
+        for (int i = 0; i < suffixLength; ++i) {
+            int diff = (suffixes[entry * suffixLength + i] & 0xFF) - (hash[i + SKIP] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private int nibble(int entry, int digit) {
+        int b = suffixes[entry * suffixLength + digit / 2 - SKIP];
+        return (digit & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+    }
+
+    /**
+     * Collects hashes to build a range.
+     */
+    static final class Builder {
+
+        private final String prefix;
+        private final int hashLength;
+        private final int suffixLength;
+        private byte[] suffixes;
+        private int[] counts;
+        private int size = 0;
+        private boolean sorted = true;
+
+        Builder(String prefix, int hashLength) {
+            this.prefix = prefix.toUpperCase();
+            this.hashLength = hashLength;
+            this.suffixLength = hashLength - SKIP;
+            this.suffixes = new byte[suffixLength * 1024];
+            this.counts = new int[1024];
+        }
+
+        /**
+         * Add a hash to the range.
+         *
+         * @param hash  The full hash. Only the bytes after the prefix are used.
+         * @param count The count for the hash
+         */
+        void add(byte[] hash, int count) {
+            if (size == counts.length) {
+                counts = Arrays.copyOf(counts, size * 2);
+                suffixes = Arrays.copyOf(suffixes, suffixLength * size * 2);
+            }
+            System.arraycopy(hash, SKIP, suffixes, size * suffixLength, suffixLength);
+            counts[size] = count;
+            if (size > 0 && compare(size - 1, size) > 0) {
+                sorted = false;
+            }
+            size++;
+        }
+
+        PwnedRange build() {
+            byte[] sfx = Arrays.copyOf(suffixes, size * suffixLength);
+            int[] cnt = Arrays.copyOf(counts, size);
+            if (!sorted) {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; ++i) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, this::compare);
+                for (int i = 0; i < size; ++i) {
+                    System.arraycopy(suffixes, order[i] * suffixLength, sfx, i * suffixLength, suffixLength);
+                    cnt[i] = counts[order[i]];
+                }
+            }
+            return new PwnedRange(prefix, hashLength, sfx, cnt);
+        }
+
+        private int compare(int a, int b) {
+            for (int i = 0; i < suffixLength; ++i) {
+                int diff = (suffixes[a * suffixLength + i] & 0xFF) - (suffixes[b * suffixLength + i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return 0;
+        }
+
+    }
+
+}
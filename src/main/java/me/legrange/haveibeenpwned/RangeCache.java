@@ -0,0 +1,37 @@
+package me.legrange.haveibeenpwned;
+
+/**
+ * A cache for Pwned Passwords ranges, used to avoid fetching the same range
+ * over and over. Implementations must be thread safe.
+ *
+ * @author gideon
+ */
+public interface RangeCache {
+
+    /**
+     * Get a cached range.
+     *
+     * @param hash5 The 5 digit prefix of the range
+     * @return The range, or null if it is not cached
+     */
+    PwnedRange get(String hash5);
+
+    /**
+     * Add a range to the cache.
+     *
+     * @param range The range
+     */
+    void put(PwnedRange range);
+
+    /**
+     * Get a cached range even if it has expired. This is used to answer
+     * password checks when the API cannot be reached.
+     *
+     * @param hash5 The 5 digit prefix of the range
+     * @return The range, or null if it is not cached
+     */
+    default PwnedRange getStale(String hash5) {
+        return get(hash5);
+    }
+
+}
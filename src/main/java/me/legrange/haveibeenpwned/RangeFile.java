@@ -0,0 +1,300 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * All the ranges of a corpus, rendered as the text the Pwned Passwords range
+ * API returns, so that a range server can send a range straight from the
+ * file to a socket without copying it through the JVM.
+ * <p>
+ * The file has this layout (all numbers are big endian):
+ * <pre>
+ * int    magic ("PPWR")
+ * int    version
+ * int    hash length in bytes (20 for SHA1, 16 for NTLM)
+ * int    number of padding lines
+ * long   offset of the padding lines
+ * long[] index of 16^5 + 1 entries: the file offset of each range
+ * int[]  the number of lines in each range, or -1 if the file does not
+ *        hold the range
+ * byte[] the ranges, as "SUFFIX:COUNT" lines ending in CRLF
+ * byte[] padding lines of random suffixes with a count of 0, all the same
+ *        length
+ * </pre>
+ *
+ * @author gideon
+ */
+public final class RangeFile implements Closeable {
+
+    static final int MAGIC = 0x50505752;
+    static final int VERSION = 1;
+    static final int PADDING_LINES = 1000;
+
+    private static final int PREFIXES = PwnedPasswordsCorpus.PREFIXES;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    private static final long COUNTS_OFFSET = HEADER_SIZE + 8L * (PREFIXES + 1);
+    private static final long DATA_OFFSET = COUNTS_OFFSET + 4L * PREFIXES;
+
+    private final FileChannel channel;
+    private final int hashLength;
+    private final int paddingLines;
+    private final long paddingOffset;
+    private final MappedByteBuffer index;
+
+    /**
+     * Render all the ranges of a corpus to a file. This reads the whole
+     * corpus, and the file is about twice the size of the corpus.
+     *
+     * @param corpus The corpus
+     * @param file   The file to write
+     * @return The range file, opened
+     * @throws HaveIBeenPwndException Thrown if the file cannot be written
+     */
+    public static RangeFile create(PwnedPasswordsCorpus corpus, Path file) throws HaveIBeenPwndException {
+        return create(corpus, file, prefix -> true);
+    }
+
+    /**
+     * Render some of the ranges of a corpus to a file, for a node that only
+     * holds one shard of the ranges.
+     *
+     * @param corpus   The corpus
+     * @param file     The file to write
+     * @param prefixes The prefixes of the ranges to write, for example from
+     *                 ShardRouter.getShard()
+     * @return The range file, opened
+     * @throws HaveIBeenPwndException Thrown if the file cannot be written
+     */
+    public static RangeFile create(PwnedPasswordsCorpus corpus, Path file, IntPredicate prefixes) throws HaveIBeenPwndException {
+        Path tmp = null;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            ByteBuffer header = ByteBuffer.allocate((int) DATA_OFFSET);
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                out.position(DATA_OFFSET);
+                OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+                ByteArrayOutputStream range = new ByteArrayOutputStream(64 * 1024);
+                long offset = DATA_OFFSET;
+                for (int prefix = 0; prefix < PREFIXES; ++prefix) {
+                    range.reset();
+                    int lines = prefixes.test(prefix) ? corpus.writeRange(prefix, range) : -1;
+                    header.putLong(HEADER_SIZE + 8 * prefix, offset);
+                    header.putInt((int) COUNTS_OFFSET + 4 * prefix, lines);
+                    range.writeTo(stream);
+                    offset += range.size();
+                }
+                header.putLong(HEADER_SIZE + 8 * PREFIXES, offset);
+                Random random = new Random();
+                byte[] line = new byte[corpus.getHashLength() * 2 - 5 + 4];
+                for (int i = 0; i < PADDING_LINES; ++i) {
+                    for (int digit = 0; digit < line.length - 4; ++digit) {
+                        line[digit] = (byte) Hex.digit(random.nextInt(16));
+                    }
+                    line[line.length - 4] = ':';
+                    line[line.length - 3] = '0';
+                    line[line.length - 2] = '\r';
+                    line[line.length - 1] = '\n';
+                    stream.write(line);
+                }
+                stream.flush();
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, corpus.getHashLength());
+                header.putInt(12, PADDING_LINES);
+                header.putLong(16, offset);
+                header.position(0);
+                while (header.hasRemaining()) {
+                    out.write(header, header.position());
+                }
+                out.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ex2) {
+                    ex.addSuppressed(ex2);
+                }
+            }
+            throw new HaveIBeenPwndException(String.format("Cannot create range file '%s': %s", file, ex.getMessage()), ex);
+        }
+        return open(file);
+    }
+
+    /**
+     * Open a range file.
+     *
+     * @param file The file to open
+     * @return The range file
+     * @throws HaveIBeenPwndException Thrown if the file cannot be read or is
+     *                                not a valid range file
+     */
+    public static RangeFile open(Path file) throws HaveIBeenPwndException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            return new RangeFile(channel);
+        } catch (IOException ex) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex2) {
+                    ex.addSuppressed(ex2);
+                }
+            }
+            throw new HaveIBeenPwndException(String.format("Cannot open range file '%s': %s", file, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Get the length in bytes of the hashes in this file.
+     *
+     * @return The hash length
+     */
+    public int getHashLength() {
+        return hashLength;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return The size in bytes
+     * @throws IOException Thrown if the size cannot be read
+     */
+    public long sizeInBytes() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException Thrown if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Get the number of lines in a range.
+     *
+     * @param prefix The 5 digit prefix of the range
+     * @return The number of lines, or -1 if the file does not hold the range
+     */
+    int getLines(int prefix) {
+        return index.getInt((int) (COUNTS_OFFSET + 4L * prefix));
+    }
+
+    /**
+     * Check if the file holds a range.
+     *
+     * @param prefix The 5 digit prefix of the range
+     * @return True if it holds the range
+     */
+    boolean holds(int prefix) {
+        return getLines(prefix) >= 0;
+    }
+
+    /**
+     * Get the length of a range.
+     *
+     * @param prefix The 5 digit prefix of the range
+     * @return The length in bytes
+     */
+    long getLength(int prefix) {
+        return index.getLong(HEADER_SIZE + 8 * (prefix + 1)) - index.getLong(HEADER_SIZE + 8 * prefix);
+    }
+
+    /**
+     * Get the length of a padding line.
+     *
+     * @return The length in bytes
+     */
+    int getPaddingLineLength() {
+        return hashLength * 2 - 5 + 4;
+    }
+
+    /**
+     * Get the number of padding lines in the file.
+     *
+     * @return The number of lines
+     */
+    int getPaddingLines() {
+        return paddingLines;
+    }
+
+    /**
+     * Send a range to a channel. On most platforms the bytes are sent from
+     * the file to the socket by the operating system, without being copied
+     * into the JVM.
+     *
+     * @param prefix The 5 digit prefix of the range
+     * @param target The channel to send to
+     * @throws IOException Thrown if the range cannot be sent
+     */
+    void transferRange(int prefix, WritableByteChannel target) throws IOException {
+        transfer(index.getLong(HEADER_SIZE + 8 * prefix), getLength(prefix), target);
+    }
+
+    /**
+     * Send padding lines to a channel.
+     *
+     * @param first The first padding line to send
+     * @param lines The number of lines to send
+     * @param target The channel to send to
+     * @throws IOException Thrown if the padding cannot be sent
+     */
+    void transferPadding(int first, int lines, WritableByteChannel target) throws IOException {
+        long length = getPaddingLineLength();
+        transfer(paddingOffset + first * length, lines * length, target);
+    }
+
+    private void transfer(long position, long count, WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long sent = channel.transferTo(position, count, target);
+            if (sent <= 0) {
+                throw new IOException("Cannot send range");
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    private RangeFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < DATA_OFFSET) {
+            throw new IOException("File is too short");
+        }
+        index = channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA_OFFSET);
+        if (index.getInt(0) != MAGIC) {
+            throw new IOException("Not a range file");
+        }
+        if (index.getInt(4) != VERSION) {
+            throw new IOException("Unsupported range file version " + index.getInt(4));
+        }
+        hashLength = index.getInt(8);
+        paddingLines = index.getInt(12);
+        paddingOffset = index.getLong(16);
+        if (channel.size() != paddingOffset + (long) paddingLines * getPaddingLineLength()) {
+            throw new IOException("Range file size does not match its header");
+        }
+    }
+
+}
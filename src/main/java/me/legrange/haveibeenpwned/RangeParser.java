@@ -0,0 +1,245 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * Parses Pwned Passwords range responses as they are read from the network,
+ * without building a String for the body or its lines.
+ * <p>
+ * Each line of a range is a hash suffix, a colon and a count. The lines are
+ * sorted by hash, which allows a lookup to stop as soon as it has seen the
+ * hash it is looking for, or one that comes after it. Padding lines have a
+ * count of 0 and are ignored.
+ *
+ * @author gideon
+ */
+final class RangeParser {
+
+    /**
+     * Receives the hashes read from a range.
+     */
+    interface Handler {
+
+        /**
+         * Accept a hash from the range.
+         *
+         * @param hash  The full hash. The array is reused for the next hash.
+         * @param count The count for the hash
+         * @throws IOException Thrown if the hash cannot be handled
+         */
+        void accept(byte[] hash, int count) throws IOException;
+
+    }
+
+    /**
+     * Read all the hashes in a range. Padding lines are skipped, so the
+     * handler only receives hashes that have been seen.
+     *
+     * @param hash5      The 5 digit prefix of the range
+     * @param hashLength The length of the hashes in bytes
+     * @param source     The response body
+     * @param handler    The handler that receives the hashes
+     * @throws IOException Thrown if the body cannot be read or is invalid
+     */
+    static void read(String hash5, int hashLength, BufferedSource source, Handler handler) throws IOException {
+        int prefix = Hex.parse(hash5, 5);
+        int digits = hashLength * 2;
+        byte[] hash = new byte[hashLength];
+        while (skipBlankLines(source)) {
+            hash[0] = (byte) (prefix >> 12);
+            hash[1] = (byte) (prefix >> 4);
+            hash[2] = (byte) (prefix << 4);
+            for (int i = 3; i < hashLength; ++i) {
+                hash[i] = 0;
+            }
+            int digit = 5;
+            byte b;
+            while ((b = source.readByte()) != ':') {
+                if (digit >= digits) {
+                    throw new IOException("Hash is too long in range " + hash5);
+                }
+                int nibble = value(b);
+                hash[digit / 2] |= (digit & 1) == 0 ? nibble << 4 : nibble;
+                digit++;
+            }
+            if (digit != digits) {
+                throw new IOException("Hash is too short in range " + hash5);
+            }
+            int count = readCount(source);
+            if (count > 0) {
+                handler.accept(hash, count);
+            }
+        }
+    }
+
+    /**
+     * Read a whole range into a PwnedRange, without its padding lines.
+     *
+     * @param hash5      The 5 digit prefix of the range
+     * @param hashLength The length of the hashes in bytes
+     * @param source     The response body
+     * @return The range
+     * @throws IOException Thrown if the body cannot be read or is invalid
+     */
+    static PwnedRange parse(String hash5, int hashLength, BufferedSource source) throws IOException {
+        PwnedRange.Builder builder = new PwnedRange.Builder(hash5, hashLength);
+        read(hash5, hashLength, source, builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Find the count for a hash in a range, reading only as much of the range
+     * as is needed. Suffixes are compared as packed numbers, so no objects are
+     * created while reading.
+     *
+     * @param hash       The full hash, hex encoded
+     * @param hashLength The length of the hashes in bytes
+     * @param source     The response body
+     * @return The count, or 0 if the hash is not in the range
+     * @throws IOException Thrown if the body cannot be read or is invalid
+     */
+    static int findCount(CharSequence hash, int hashLength, BufferedSource source) throws IOException {
+        int digits = hashLength * 2 - 5;
+        if (hash.length() != hashLength * 2) {
+            return 0;
+        }
+        long target0 = 0;
+        long target1 = 0;
+        long target2 = 0;
+        for (int digit = 0; digit < digits; ++digit) {
+            int nibble = Hex.value(hash.charAt(digit + 5));
+            if (digit < 16) {
+                target0 = (target0 << 4) | nibble;
+            } else if (digit < 32) {
+                target1 = (target1 << 4) | nibble;
+            } else {
+                target2 = (target2 << 4) | nibble;
+            }
+        }
+        return findCount(target0, target1, target2, digits, source);
+    }
+
+    /**
+     * Find the count for a binary hash in a range, reading only as much of the
+     * range as is needed.
+     *
+     * @param hash       The full binary hash
+     * @param hashLength The length of the hashes in bytes
+     * @param source     The response body
+     * @return The count, or 0 if the hash is not in the range
+     * @throws IOException Thrown if the body cannot be read or is invalid
+     */
+    static int findCount(byte[] hash, int hashLength, BufferedSource source) throws IOException {
+        int digits = hashLength * 2 - 5;
+        if (hash.length != hashLength) {
+            return 0;
+        }
+        long target0 = 0;
+        long target1 = 0;
+        long target2 = 0;
+        for (int digit = 0; digit < digits; ++digit) {
+            int nibble = Hex.nibble(hash, digit + 5);
+            if (digit < 16) {
+                target0 = (target0 << 4) | nibble;
+            } else if (digit < 32) {
+                target1 = (target1 << 4) | nibble;
+            } else {
+                target2 = (target2 << 4) | nibble;
+            }
+        }
+        return findCount(target0, target1, target2, digits, source);
+    }
+
+    /**
+     * Find the count for a hash suffix packed into up to three longs, 16
+     * digits each.
+     */
+    private static int findCount(long target0, long target1, long target2, int digits, BufferedSource source) throws IOException {
+        while (skipBlankLines(source)) {
+            long suffix0 = 0;
+            long suffix1 = 0;
+            long suffix2 = 0;
+            int digit = 0;
+            byte b;
+            while ((b = source.readByte()) != ':') {
+                int nibble = value(b);
+                if (digit < 16) {
+                    suffix0 = (suffix0 << 4) | nibble;
+                } else if (digit < 32) {
+                    suffix1 = (suffix1 << 4) | nibble;
+                } else {
+                    suffix2 = (suffix2 << 4) | nibble;
+                }
+                digit++;
+            }
+            if (digit != digits) {
+                throw new IOException("Invalid hash length in range");
+            }
+            int count = readCount(source);
+            int cmp = Long.compareUnsigned(suffix0, target0);
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(suffix1, target1);
+            }
+            if (cmp == 0) {
+                cmp = Long.compareUnsigned(suffix2, target2);
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (cmp == 0) {
+                return count;
+            }
+            if (cmp > 0) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Skip empty lines.
+     *
+     * @return True if there is more data to read
+     */
+    private static boolean skipBlankLines(BufferedSource source) throws IOException {
+        while (!source.exhausted()) {
+            byte b = source.buffer().getByte(0);
+            if (b != '\r' && b != '\n') {
+                return true;
+            }
+            source.readByte();
+        }
+        return false;
+    }
+
+    /**
+     * Read the count up to the end of the line.
+     */
+    private static int readCount(BufferedSource source) throws IOException {
+        int count = 0;
+        while (!source.exhausted()) {
+            byte b = source.readByte();
+            if (b == '\n') {
+                break;
+            }
+            if (b >= '0' && b <= '9') {
+                count = count * 10 + (b - '0');
+            }
+        }
+        return count;
+    }
+
+    private static int value(byte b) throws IOException {
+        try {
+            return Hex.value((char) (b & 0xFF));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private RangeParser() {
+    }
+
+}
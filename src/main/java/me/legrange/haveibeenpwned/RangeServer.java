@@ -0,0 +1,487 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+/**
+ * A small HTTP server that answers Pwned Passwords range requests from local
+ * range files, so that many API instances in one data centre can share it
+ * instead of each calling api.pwnedpasswords.com. Point clients at it with
+ * HaveIBeenPwndBuilder.withPwndPasswordsUrl().
+ * <p>
+ * It answers GET and HEAD requests for /range/{hash5}, in NTLM mode when the
+ * query has mode=ntlm and an NTLM range file was given. Range bodies are sent
+ * from the range file to the socket with FileChannel.transferTo(), so they
+ * are not copied through the JVM. Requests with an Add-Padding header get
+ * padding lines with a count of 0 appended, up to between 800 and 1000 lines.
+ * A node that holds one shard of the ranges answers requests for other
+ * ranges with 421 (misdirected request), so that clients try another node.
+ * <p>
+ * Connections are kept alive and each is served by its own thread, a
+ * virtual thread when the JVM supports them. A connection that sends nothing
+ * for the idle timeout is closed, so that idle clients cannot hold all the
+ * threads of the platform thread pool.
+ *
+ * @author gideon
+ */
+public final class RangeServer implements Closeable {
+
+    private static final int MAX_HEAD = 8192;
+    private static final int MIN_PADDED = 800;
+    private static final int MAX_PADDED = 1000;
+
+    private final RangeFile sha1;
+    private RangeFile ntlm = null;
+    private int threads = 256;
+    private int idleTimeoutMillis = 60_000;
+    private ServerSocketChannel server;
+    private ExecutorService executor;
+    private Thread acceptor;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    /**
+     * Create a server for SHA1 ranges.
+     *
+     * @param sha1 The SHA1 range file
+     */
+    public RangeServer(RangeFile sha1) {
+        this.sha1 = sha1;
+    }
+
+    /**
+     * Also answer NTLM mode requests.
+     *
+     * @param ntlm The NTLM range file, made from a corpus built by
+     *             HaveIBeenPwndApi.createNtlmCorpusDownloader()
+     * @return The server
+     */
+    public RangeServer withNtlm(RangeFile ntlm) {
+        if (ntlm != null && ntlm.getHashLength() != PasswordHasher.NTLM_LENGTH) {
+            throw new IllegalArgumentException("The NTLM range file must hold NT hashes");
+        }
+        this.ntlm = ntlm;
+        return this;
+    }
+
+    /**
+     * Set the number of platform threads used to serve connections when
+     * virtual threads are not available. Each open connection uses a thread.
+     *
+     * @param threads The number of threads
+     * @return The server
+     */
+    public RangeServer withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Set how long a connection may wait for the next request, or for the
+     * rest of a request, before it is closed. The default is one minute.
+     *
+     * @param idleTimeout The idle timeout
+     * @return The server
+     */
+    public RangeServer withIdleTimeout(Duration idleTimeout) {
+        if (idleTimeout.toMillis() < 1 || idleTimeout.toMillis() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Idle timeout must be between 1 millisecond and 24 days");
+        }
+        this.idleTimeoutMillis = (int) idleTimeout.toMillis();
+        return this;
+    }
+
+    /**
+     * Start listening.
+     *
+     * @param address The address to listen on. Use port 0 to pick a free port.
+     * @return The server
+     * @throws HaveIBeenPwndException Thrown if the server cannot listen on
+     *                                the address
+     */
+    public synchronized RangeServer start(InetSocketAddress address) throws HaveIBeenPwndException {
+        if (server != null) {
+            throw new IllegalStateException("The server is already started");
+        }
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(address, 1024);
+        } catch (IOException ex) {
+            throw new HaveIBeenPwndException(String.format("Cannot listen on %s: %s", address, ex.getMessage()), ex);
+        }
+        executor = VirtualThreads.newExecutor(true, threads);
+        acceptor = new Thread(this::accept, "hibp-range-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * Get the port the server listens on.
+     *
+     * @return The port
+     * @throws IOException Thrown if the server is not listening
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Get the base URL to give to HaveIBeenPwndBuilder.withPwndPasswordsUrl().
+     *
+     * @return The URL
+     * @throws IOException Thrown if the server is not listening
+     */
+    public String getUrl() throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        String host = address.getAddress().isAnyLocalAddress() ? "localhost" : address.getHostString();
+        return "http://" + host + ":" + address.getPort() + "/";
+    }
+
+    /**
+     * Get the number of requests answered.
+     *
+     * @return The number of requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Get the number of range bytes sent, not counting headers.
+     *
+     * @return The number of bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RangeServer{requests=%d, bytesSent=%d, connections=%d}",
+                getRequests(), getBytesSent(), connections.size());
+    }
+
+    /**
+     * Stop the server and close all connections. The range files are not
+     * closed.
+     *
+     * @throws IOException Thrown if the server cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (server == null) {
+            return;
+        }
+        server.close();
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Serve a corpus on a port of this machine. With --ntlm, NTLM mode
+     * requests are answered from a corpus of NT hashes, as built by
+     * HaveIBeenPwndApi.createNtlmCorpusDownloader(). Given the URLs of all the
+     * nodes of a sharded fleet, only the shard of this node
+     * (http://localhost:port/) is served; HIBP_REPLICAS sets the number of
+     * replicas, 2 by default. While the fleet changes, --from gives the
+     * comma separated node URLs clients still use, and the node serves its
+     * shard under both lists (see RebalancePlan). The range files are rebuilt
+     * next to the corpora on every start.
+     *
+     * @param args Optionally --ntlm and the NTLM corpus file and --from and
+     *             the old node URLs, then the corpus file, the port and
+     *             optionally the node URLs
+     * @throws Exception Thrown if the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        String ntlmCorpus = null;
+        String fromNodes = null;
+        while (args.length > 1 && (args[0].equals("--ntlm") || args[0].equals("--from"))) {
+            if (args[0].equals("--ntlm")) {
+                ntlmCorpus = args[1];
+            } else {
+                fromNodes = args[1];
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length < 2 || (fromNodes != null && args.length < 3)) {
+            System.err.println("Usage: RangeServer [--ntlm <NTLM corpus file>] [--from <old node URLs>] <corpus file> <port> [<node URL>...]");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[1]);
+        IntPredicate shard = prefix -> true;
+        String suffix = ".ranges";
+        if (args.length > 2) {
+            String env = System.getenv("HIBP_REPLICAS");
+            int replicas = env == null ? 2 : Integer.parseInt(env);
+            ShardRouter router = new ShardRouter(Arrays.asList(args).subList(2, args.length), replicas);
+            String self = "http://localhost:" + port + "/";
+            if (fromNodes == null) {
+                shard = router.getShard(self);
+            } else {
+                ShardRouter from = new ShardRouter(Arrays.asList(fromNodes.split(",")), replicas);
+                RebalancePlan plan = from.planRebalance(router);
+                System.out.println(plan);
+                shard = plan.getTransitionShard(self);
+            }
+            suffix = "-" + port + ".ranges";
+        }
+        RangeFile ranges = createRangeFile(args[0], suffix, shard);
+        RangeFile ntlmRanges = ntlmCorpus == null ? null : createRangeFile(ntlmCorpus, suffix, shard);
+        RangeServer server = new RangeServer(ranges).withNtlm(ntlmRanges).start(new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println(server);
+            try {
+                server.close();
+                ranges.close();
+                if (ntlmRanges != null) {
+                    ntlmRanges.close();
+                }
+            } catch (IOException ex) {
+                System.err.println("Cannot stop the server: " + ex.getMessage());
+            }
+        }));
+        System.out.println("Serving " + args[0] + (ntlmCorpus == null ? "" : " and " + ntlmCorpus) + " on " + server.getUrl());
+        server.acceptor.join();
+    }
+
+    private static RangeFile createRangeFile(String corpusFile, String suffix, IntPredicate shard) throws HaveIBeenPwndException, IOException {
+        try (PwnedPasswordsCorpus corpus = PwnedPasswordsCorpus.open(Paths.get(corpusFile))) {
+            return RangeFile.create(corpus, Paths.get(corpusFile + suffix), shard);
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel connection = server.accept();
+                connections.add(connection);
+                try {
+                    executor.execute(() -> serve(connection));
+                } catch (RejectedExecutionException ex) {
+                    // the server was closed after the connection was accepted
+                    connections.remove(connection);
+                    connection.close();
+                    return;
+                }
+            }
+        } catch (ClosedChannelException ex) {
+            // the server was closed
+        } catch (IOException ex) {
+            try {
+                server.close();
+            } catch (IOException ex2) {
+                ex.addSuppressed(ex2);
+            }
+        }
+    }
+
+    /**
+     * Serve the requests on a connection until it is closed.
+     */
+    private void serve(SocketChannel connection) {
+        ByteBuffer in = ByteBuffer.allocate(MAX_HEAD);
+        try {
+            connection.socket().setTcpNoDelay(true);
+            // reads through the socket's stream honour the timeout, unlike
+            // reads from the channel
+            connection.socket().setSoTimeout(idleTimeoutMillis);
+            InputStream input = connection.socket().getInputStream();
+            while (true) {
+                int end;
+                while ((end = endOfHead(in)) < 0) {
+                    if (!in.hasRemaining()) {
+                        respond(connection, 431, "Request header fields too large", true, false);
+                        return;
+                    }
+                    int read = input.read(in.array(), in.position(), in.remaining());
+                    if (read < 0) {
+                        return;
+                    }
+                    in.position(in.position() + read);
+                }
+                String head = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+                int consumed = end + 4;
+                in.flip();
+                in.position(consumed);
+                in.compact();
+                if (!handle(connection, head)) {
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            // the client went away or was idle for too long
+        } finally {
+            connections.remove(connection);
+            try {
+                connection.close();
+            } catch (IOException ex) {
+                // nothing more can be done
+            }
+        }
+    }
+
+    /**
+     * Handle one request.
+     *
+     * @return True if the connection stays open
+     */
+    private boolean handle(SocketChannel connection, String head) throws IOException {
+        requests.increment();
+        String[] lines = head.split("\r\n");
+        String[] request = lines[0].split(" ");
+        if (request.length != 3) {
+            respond(connection, 400, "Bad request", true, false);
+            return false;
+        }
+        boolean close = !request[2].equals("HTTP/1.1");
+        boolean padding = false;
+        for (int i = 1; i < lines.length; ++i) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equals("add-padding")) {
+                    padding = value.equalsIgnoreCase("true");
+                } else if (name.equals("connection")) {
+                    close = value.equalsIgnoreCase("close") || (close && !value.equalsIgnoreCase("keep-alive"));
+                } else if (name.equals("content-length") || name.equals("transfer-encoding")) {
+                    respond(connection, 400, "Request bodies are not supported", true, false);
+                    return false;
+                }
+            }
+        }
+        boolean headOnly = request[0].equals("HEAD");
+        if (!headOnly && !request[0].equals("GET")) {
+            respond(connection, 405, "Method not allowed", close, false);
+            return !close;
+        }
+        String path = request[1];
+        String query = "";
+        int q = path.indexOf('?');
+        if (q >= 0) {
+            query = path.substring(q + 1);
+            path = path.substring(0, q);
+        }
+        if (!path.startsWith("/range/")) {
+            respond(connection, 404, "Not found", close, headOnly);
+            return !close;
+        }
+        String hash5 = path.substring(7);
+        if (!isPrefix(hash5)) {
+            respond(connection, 400, "The hash prefix was not in a valid format", close, headOnly);
+            return !close;
+        }
+        RangeFile file = sha1;
+        for (String param : query.split("&")) {
+            if (param.equalsIgnoreCase("mode=ntlm")) {
+                file = ntlm;
+            }
+        }
+        if (file == null) {
+            respond(connection, 400, "NTLM mode is not available", close, headOnly);
+            return !close;
+        }
+        int prefix = Hex.parse(hash5, 5);
+        if (!file.holds(prefix)) {
+            respond(connection, 421, "Range is not held by this node", close, headOnly);
+            return !close;
+        }
+        sendRange(connection, file, prefix, padding, close, headOnly);
+        return !close;
+    }
+
+    private void sendRange(SocketChannel connection, RangeFile file, int prefix, boolean padding, boolean close, boolean headOnly) throws IOException {
+        long length = file.getLength(prefix);
+        int pad = 0;
+        int firstPad = 0;
+        if (padding) {
+            int target = ThreadLocalRandom.current().nextInt(MIN_PADDED, MAX_PADDED + 1);
+            pad = Math.min(file.getPaddingLines(), Math.max(0, target - file.getLines(prefix)));
+            firstPad = ThreadLocalRandom.current().nextInt(file.getPaddingLines() - pad + 1);
+        }
+        long total = length + (long) pad * file.getPaddingLineLength();
+        write(connection, "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: " + total + "\r\n"
+                + "Cache-Control: public, max-age=2678400\r\n"
+                + (close ? "Connection: close\r\n" : "")
+                + "\r\n");
+        if (!headOnly) {
+            file.transferRange(prefix, connection);
+            if (pad > 0) {
+                file.transferPadding(firstPad, pad, connection);
+            }
+            bytesSent.add(total);
+        }
+    }
+
+    private static void respond(SocketChannel connection, int status, String message, boolean close, boolean headOnly) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        write(connection, "HTTP/1.1 " + status + " " + message + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (close ? "Connection: close\r\n" : "")
+                + "\r\n" + (headOnly ? "" : message));
+    }
+
+    private static void write(SocketChannel connection, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            connection.write(buf);
+        }
+    }
+
+    /**
+     * Find the end of the request head in the bytes read so far.
+     *
+     * @return The index of the blank line, or -1 if it has not been read yet
+     */
+    private static int endOfHead(ByteBuffer in) {
+        byte[] buf = in.array();
+        for (int i = 0; i + 3 < in.position(); ++i) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isPrefix(String hash5) {
+        if (hash5.length() != 5) {
+            return false;
+        }
+        for (int i = 0; i < 5; ++i) {
+            if (Character.digit(hash5.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
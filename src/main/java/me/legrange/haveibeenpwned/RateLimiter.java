@@ -0,0 +1,169 @@
+package me.legrange.haveibeenpwned;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A rate limiter that paces requests at a fixed interval (a minute divided by
+ * the requests per minute), so that they stay within the rate allowed for an
+ * API key. There is no burst capacity: even after a quiet period, requests
+ * are sent one interval apart. Requests that have to wait are queued in the
+ * order they arrive.
+ * <p>
+ * A rate limiter can be shared by several API instances that use the same API
+ * key.
+ *
+ * @author gideon
+ */
+public final class RateLimiter {
+
+    private final long intervalNanos;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private long next = System.nanoTime();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a rate limiter for the given API key tier.
+     *
+     * @param tier The tier of the API key
+     */
+    public RateLimiter(ApiKeyTier tier) {
+        this(tier.getRequestsPerMinute());
+    }
+
+    /**
+     * Create a rate limiter allowing the given number of requests per minute.
+     *
+     * @param requestsPerMinute The number of requests per minute
+     */
+    public RateLimiter(int requestsPerMinute) {
+        if (requestsPerMinute < 1) {
+            throw new IllegalArgumentException("Requests per minute must be at least 1");
+        }
+        intervalNanos = TimeUnit.MINUTES.toNanos(1) / requestsPerMinute;
+    }
+
+    /**
+     * Get the number of requests currently waiting for their turn.
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Get the number of requests that have passed through the rate limiter.
+     *
+     * @return The number of requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Get the total time requests have spent waiting for their turn.
+     *
+     * @return The total wait time
+     */
+    public Duration getTotalWaitTime() {
+        return Duration.ofNanos(waitNanos.get());
+    }
+
+    /**
+     * Get the average time a request has waited for its turn.
+     *
+     * @return The average wait time
+     */
+    public Duration getAverageWaitTime() {
+        long count = requests.get();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(waitNanos.get() / count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RateLimiter{requests=%d, queueDepth=%d, averageWait=%s}",
+                getRequests(), getQueueDepth(), getAverageWaitTime());
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @throws InterruptedException Thrown if the thread is interrupted while
+     *                              waiting
+     */
+    void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            queueDepth.incrementAndGet();
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } finally {
+                queueDepth.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Run a task once a request may be sent, without blocking the caller.
+     *
+     * @param task The task that sends the request
+     */
+    void schedule(Runnable task) {
+        long wait = reserve();
+        if (wait > 0) {
+            queueDepth.incrementAndGet();
+            scheduler().schedule(() -> {
+                queueDepth.decrementAndGet();
+                task.run();
+            }, wait, TimeUnit.NANOSECONDS);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Hold back all requests for a while, for example when the API has asked
+     * for requests to be retried later.
+     *
+     * @param nanos How long to hold back requests
+     */
+    synchronized void backOff(long nanos) {
+        next = Math.max(next, System.nanoTime() + nanos);
+    }
+
+    /**
+     * Reserve the next slot for a request.
+     *
+     * @return How long the caller has to wait before sending its request
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        if (next - now < 0) {
+            next = now;
+        }
+        long wait = next - now;
+        next += intervalNanos;
+        requests.incrementAndGet();
+        waitNanos.addAndGet(wait);
+        return wait;
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "hibp-rate-limiter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+}
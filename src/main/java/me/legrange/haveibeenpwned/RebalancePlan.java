@@ -0,0 +1,179 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * The prefixes that move between nodes when the nodes of a sharded range
+ * server fleet change. To change without a gap, first rebuild the range file
+ * of every node with its {@link #getTransitionShard(String) transition
+ * shard}, which holds the ranges it gains while keeping those it loses. Then
+ * move the clients to the new router, and only then rebuild every node with
+ * the new router's shard to drop the ranges it lost. A node rebuilt with the
+ * new router's shard too early answers 421 to clients that still use the old
+ * router.
+ *
+ * @author gideon
+ */
+public final class RebalancePlan {
+
+    private static final int PREFIXES = PwnedPasswordsCorpus.PREFIXES;
+
+    private final ShardRouter from;
+    private final ShardRouter to;
+    private final Set<String> nodes = new LinkedHashSet<>();
+    private final BitSet[] gained;
+    private final BitSet[] dropped;
+    private int moved = 0;
+
+    RebalancePlan(ShardRouter from, ShardRouter to) {
+        this.from = from;
+        this.to = to;
+        nodes.addAll(from.getNodes());
+        nodes.addAll(to.getNodes());
+        List<String> all = new ArrayList<>(nodes);
+        gained = new BitSet[all.size()];
+        dropped = new BitSet[all.size()];
+        for (int i = 0; i < all.size(); ++i) {
+            gained[i] = new BitSet(PREFIXES);
+            dropped[i] = new BitSet(PREFIXES);
+        }
+        int[] fromIndex = indexes(from.getNodes(), all);
+        int[] toIndex = indexes(to.getNodes(), all);
+        for (int prefix = 0; prefix < PREFIXES; ++prefix) {
+            BitSet before = new BitSet(all.size());
+            for (int node : from.replicaIndexes(prefix)) {
+                before.set(fromIndex[node]);
+            }
+            BitSet after = new BitSet(all.size());
+            for (int node : to.replicaIndexes(prefix)) {
+                after.set(toIndex[node]);
+            }
+            if (!before.equals(after)) {
+                moved++;
+                for (int node = after.nextSetBit(0); node >= 0; node = after.nextSetBit(node + 1)) {
+                    if (!before.get(node)) {
+                        gained[node].set(prefix);
+                    }
+                }
+                for (int node = before.nextSetBit(0); node >= 0; node = before.nextSetBit(node + 1)) {
+                    if (!after.get(node)) {
+                        dropped[node].set(prefix);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the router the plan changes from.
+     *
+     * @return The router
+     */
+    public ShardRouter getFrom() {
+        return from;
+    }
+
+    /**
+     * Get the router the plan changes to.
+     *
+     * @return The router
+     */
+    public ShardRouter getTo() {
+        return to;
+    }
+
+    /**
+     * Get all the nodes of both routers.
+     *
+     * @return The base URLs of the nodes
+     */
+    public Set<String> getNodes() {
+        return Collections.unmodifiableSet(nodes);
+    }
+
+    /**
+     * Get the prefixes a node must hold while clients move from the old
+     * router to the new one: those it holds under either router. Give this to
+     * RangeFile.create() for the first step of the change.
+     *
+     * @param node The base URL of the node
+     * @return A test for the prefixes the node holds during the change
+     */
+    public IntPredicate getTransitionShard(String node) {
+        index(node);
+        String key = node.endsWith("/") ? node : node + "/";
+        IntPredicate before = from.getNodes().contains(key) ? from.getShard(key) : prefix -> false;
+        IntPredicate after = to.getNodes().contains(key) ? to.getShard(key) : prefix -> false;
+        return before.or(after);
+    }
+
+    /**
+     * Get the prefixes a node must load before clients move to the new
+     * router.
+     *
+     * @param node The base URL of the node
+     * @return The prefixes, in ascending order
+     */
+    public int[] getGained(String node) {
+        return gained[index(node)].stream().toArray();
+    }
+
+    /**
+     * Get the prefixes a node may drop after clients moved to the new router.
+     *
+     * @param node The base URL of the node
+     * @return The prefixes, in ascending order
+     */
+    public int[] getDropped(String node) {
+        return dropped[index(node)].stream().toArray();
+    }
+
+    /**
+     * Get the fraction of prefixes that are held by a different set of nodes
+     * after the change.
+     *
+     * @return The fraction, between 0 and 1
+     */
+    public double getMovedFraction() {
+        return (double) moved / PREFIXES;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(String.format("RebalancePlan{moved=%.1f%%", getMovedFraction() * 100));
+        int i = 0;
+        for (String node : nodes) {
+            buf.append(String.format(", %s: +%d -%d", node, gained[i].cardinality(), dropped[i].cardinality()));
+            i++;
+        }
+        return buf.append('}').toString();
+    }
+
+    private int index(String node) {
+        int i = 0;
+        String key = node.endsWith("/") ? node : node + "/";
+        for (String n : nodes) {
+            if (n.equals(key)) {
+                return i;
+            }
+            i++;
+        }
+        throw new IllegalArgumentException("Unknown node '" + node + "'");
+    }
+
+    private static int[] indexes(List<String> nodes, List<String> all) {
+        int[] res = new int[nodes.size()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = all.indexOf(nodes.get(i));
+        }
+        return res;
+    }
+
+}
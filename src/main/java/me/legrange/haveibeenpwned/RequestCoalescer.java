@@ -0,0 +1,182 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers that ask for the same thing share one request. The
+ * first caller for a key makes the request, and callers that ask for the same
+ * key while it is in flight get its result instead of making their own.
+ * <p>
+ * In-flight requests are kept in a concurrent map, so requests for different
+ * keys never wait for each other. Results are shared between callers and
+ * should not be modified.
+ *
+ * @author gideon
+ */
+public final class RequestCoalescer {
+
+    /**
+     * Loads a value synchronously.
+     *
+     * @param <V> The type of value
+     */
+    interface Loader<V> {
+
+        V load() throws HaveIBeenPwndException;
+
+    }
+
+    private final ConcurrentMap<Object, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    RequestCoalescer() {
+    }
+
+    /**
+     * Get the number of requests asked for.
+     *
+     * @return The number of requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Get the number of requests that shared another caller's request.
+     *
+     * @return The number of coalesced requests
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Get the fraction of requests that shared another caller's request.
+     *
+     * @return The coalesced ratio, between 0 and 1
+     */
+    public double getCoalescedRatio() {
+        long total = requests.sum();
+        return total == 0 ? 0 : (double) coalesced.sum() / total;
+    }
+
+    /**
+     * Get the number of requests in flight.
+     *
+     * @return The number of requests
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RequestCoalescer{requests=%d, coalesced=%d, inFlight=%d}", getRequests(), getCoalesced(), getInFlight());
+    }
+
+    /**
+     * Load a value on the calling thread, or wait for the request in flight
+     * for the same key. However the load ends, the request is no longer in
+     * flight afterwards and callers waiting for it get its outcome.
+     *
+     * @param <V>    The type of value
+     * @param key    The key of the request
+     * @param loader Loads the value if no request is in flight
+     * @return The value
+     * @throws HaveIBeenPwndException Thrown if the value cannot be loaded
+     */
+    @SuppressWarnings("unchecked")
+    <V> V load(Object key, Loader<V> loader) throws HaveIBeenPwndException {
+        requests.increment();
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = (CompletableFuture<V>) inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+        try {
+            V value = loader.load();
+            created.complete(value);
+            return value;
+        } catch (Throwable ex) {
+            created.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * Load a value asynchronously, or share the request in flight for the
+     * same key.
+     *
+     * @param <V>    The type of value
+     * @param key    The key of the request
+     * @param loader Starts the request if none is in flight
+     * @return The value
+     */
+    @SuppressWarnings("unchecked")
+    <V> CompletableFuture<V> loadAsync(Object key, Supplier<CompletableFuture<V>> loader) {
+        requests.increment();
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = (CompletableFuture<V>) inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return copy(existing);
+        }
+        try {
+            loader.get().whenComplete((value, ex) -> {
+                inFlight.remove(key, created);
+                if (ex != null) {
+                    created.completeExceptionally(ex);
+                } else {
+                    created.complete(value);
+                }
+            });
+        } catch (Throwable ex) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(ex);
+        }
+        return copy(created);
+    }
+
+    /**
+     * Give each caller its own future, so that one caller cancelling does
+     * not cancel the request for the others.
+     */
+    private static <V> CompletableFuture<V> copy(CompletableFuture<V> future) {
+        return future.thenApply(value -> value);
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws HaveIBeenPwndException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new HaveIBeenPwndException("Interrupted while waiting for a request", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof HaveIBeenPwndException) {
+                throw (HaveIBeenPwndException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new HaveIBeenPwndException(cause.getMessage(), cause);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package me.legrange.haveibeenpwned;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Splits the Pwned Passwords prefix space over a number of range server
+ * nodes by consistent hashing on the 5 digit prefix. Each prefix is held by
+ * a number of replicas: the first nodes found clockwise from the prefix on
+ * a hash ring on which every node has many points. Adding a node only moves
+ * the prefixes that the new node now holds.
+ * <p>
+ * Nodes are identified by their base URL, for example
+ * "http://10.0.0.7:8080/". Every client and node must use the same list of
+ * nodes and number of replicas.
+ *
+ * @author gideon
+ */
+public final class ShardRouter {
+
+    private static final int POINTS_PER_NODE = 160;
+
+    private final List<String> nodes;
+    private final int replicas;
+    private final long[] ring;
+    private final int[] owners;
+
+    /**
+     * Create a router that keeps each prefix on two nodes.
+     *
+     * @param nodes The base URLs of the nodes
+     */
+    public ShardRouter(List<String> nodes) {
+        this(nodes, 2);
+    }
+
+    /**
+     * Create a router.
+     *
+     * @param nodes    The base URLs of the nodes
+     * @param replicas The number of nodes that hold each prefix
+     */
+    public ShardRouter(List<String> nodes, int replicas) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one node is needed");
+        }
+        if (replicas < 1) {
+            throw new IllegalArgumentException("Replicas must be at least 1");
+        }
+        Set<String> unique = new LinkedHashSet<>();
+        for (String node : nodes) {
+            unique.add(node.endsWith("/") ? node : node + "/");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(unique));
+        this.replicas = Math.min(replicas, unique.size());
+        long[] points = new long[this.nodes.size() * POINTS_PER_NODE];
+        for (int node = 0; node < this.nodes.size(); ++node) {
+            for (int i = 0; i < POINTS_PER_NODE; ++i) {
+                // the low bits hold the node, so that the points sort into
+                // ring order and still say which node they belong to
+                long hash = hash(this.nodes.get(node) + "#" + i);
+                points[node * POINTS_PER_NODE + i] = (hash & ~0xFFFFL) | node;
+            }
+        }
+        Arrays.sort(points);
+        ring = points;
+        owners = new int[points.length];
+        for (int i = 0; i < points.length; ++i) {
+            owners[i] = (int) (points[i] & 0xFFFF);
+        }
+    }
+
+    /**
+     * Create a router with more nodes and the same number of replicas.
+     *
+     * @param added The base URLs of the nodes to add
+     * @return The new router
+     */
+    public ShardRouter withNodes(List<String> added) {
+        List<String> all = new ArrayList<>(nodes);
+        all.addAll(added);
+        return new ShardRouter(all, replicas);
+    }
+
+    /**
+     * Get the nodes.
+     *
+     * @return The base URLs of the nodes
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the number of nodes that hold each prefix.
+     *
+     * @return The number of replicas
+     */
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Get the nodes that hold a range, in the order they should be tried.
+     *
+     * @param hash5 The 5 character prefix of the range
+     * @return The base URLs of the nodes
+     */
+    public List<String> getNodes(String hash5) {
+        List<String> res = new ArrayList<>(replicas);
+        for (int node : replicaIndexes(Hex.parse(hash5, 5))) {
+            res.add(nodes.get(node));
+        }
+        return res;
+    }
+
+    /**
+     * Get the prefixes held by a node, for example to give to
+     * RangeFile.create().
+     *
+     * @param node The base URL of the node
+     * @return A test for the prefixes the node holds
+     */
+    public IntPredicate getShard(String node) {
+        int index = nodes.indexOf(node.endsWith("/") ? node : node + "/");
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown node '" + node + "'");
+        }
+        return prefix -> {
+            for (int owner : replicaIndexes(prefix)) {
+                if (owner == index) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Work out which prefixes move between nodes when changing from this
+     * router to another.
+     *
+     * @param target The router to change to
+     * @return The plan
+     */
+    public RebalancePlan planRebalance(ShardRouter target) {
+        return new RebalancePlan(this, target);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ShardRouter{nodes=%s, replicas=%d}", nodes, replicas);
+    }
+
+    /**
+     * Get the indexes of the nodes that hold a prefix, in order.
+     */
+    int[] replicaIndexes(int prefix) {
+        int[] res = new int[replicas];
+        int found = 0;
+        int i = Arrays.binarySearch(ring, mix(prefix) & ~0xFFFFL);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        while (found < replicas) {
+            int owner = owners[i % owners.length];
+            boolean seen = false;
+            for (int j = 0; j < found; ++j) {
+                seen |= res[j] == owner;
+            }
+            if (!seen) {
+                res[found++] = owner;
+            }
+            i++;
+        }
+        return res;
+    }
+
+    private static long hash(String text) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+}
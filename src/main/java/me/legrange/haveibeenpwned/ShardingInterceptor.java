@@ -0,0 +1,70 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends Pwned Passwords range requests to the nodes that hold the range, and
+ * tries the next replica if a node cannot be reached, has a server error or
+ * does not hold the range.
+ *
+ * @author gideon
+ */
+final class ShardingInterceptor implements Interceptor {
+
+    private final ShardRouter router;
+    private final String host;
+
+    ShardingInterceptor(ShardRouter router, String host) {
+        this.router = router;
+        this.host = host;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        HttpUrl url = request.url();
+        List<String> segments = url.pathSegments();
+        if (!url.host().equals(host) || segments.size() < 2 || !segments.get(segments.size() - 2).equals("range")) {
+            return chain.proceed(request);
+        }
+        String hash5 = segments.get(segments.size() - 1);
+        String query = url.query() == null ? "" : "?" + url.query();
+        List<String> nodes;
+        try {
+            nodes = router.getNodes(hash5);
+        } catch (IllegalArgumentException | StringIndexOutOfBoundsException ex) {
+            return chain.proceed(request);
+        }
+        IOException failure = null;
+        for (int i = 0; i < nodes.size(); ++i) {
+            HttpUrl node = HttpUrl.get(nodes.get(i) + "range/" + hash5 + query);
+            Response response;
+            try {
+                response = chain.proceed(request.newBuilder().url(node).build());
+            } catch (IOException ex) {
+                if (chain.call().isCanceled()) {
+                    throw ex;
+                }
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+                continue;
+            }
+            boolean last = i == nodes.size() - 1;
+            if (last || (response.code() != 421 && response.code() < 500)) {
+                return response;
+            }
+            response.close();
+        }
+        throw failure;
+    }
+
+}
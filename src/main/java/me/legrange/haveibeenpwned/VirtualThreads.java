@@ -0,0 +1,80 @@
+package me.legrange.haveibeenpwned;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors that run each task on a new virtual thread when the JVM
+ * supports them (Java 21 and later). The library targets Java 8, so the
+ * virtual thread API is found by reflection, and platform threads are used
+ * when it is not there.
+ *
+ * @author gideon
+ */
+final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = find();
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    /**
+     * Check if the JVM supports virtual threads.
+     *
+     * @return Are virtual threads available?
+     */
+    static boolean isAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Create an executor that starts a virtual thread for each task.
+     *
+     * @return The executor, or null if virtual threads are not available
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Create an executor for blocking tasks. It uses virtual threads if asked
+     * to and they are available, and otherwise a fixed pool of daemon
+     * platform threads.
+     *
+     * @param virtual Use virtual threads if available?
+     * @param threads The number of platform threads to use otherwise
+     * @return The executor
+     */
+    static ExecutorService newExecutor(boolean virtual, int threads) {
+        ExecutorService executor = virtual ? newVirtualThreadPerTaskExecutor() : null;
+        if (executor != null) {
+            return executor;
+        }
+        String prefix = "hibp-worker-" + POOL_COUNT.incrementAndGet() + "-";
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Method find() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException | SecurityException ex) {
+            return null;
+        }
+    }
+
+    private VirtualThreads() {
+    }
+
+}
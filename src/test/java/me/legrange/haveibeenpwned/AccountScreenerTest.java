@@ -0,0 +1,150 @@
+package me.legrange.haveibeenpwned;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests account screening against a stub breach API: that a stopped run
+ * resumes at its checkpoint, and that screenAccounts() normalises and
+ * de-duplicates accounts the same way.
+ *
+ * @author gideon
+ */
+public class AccountScreenerTest {
+
+    private static final List<String> ACCOUNTS = Arrays.asList(
+            "a@example.com",
+            "  B@Example.com ",
+            "# a comment",
+            "",
+            "b@example.com",
+            "c@example.com",
+            "fail@example.com",
+            "d@example.com");
+
+    private Path dir;
+    private HttpServer server;
+    private HaveIBeenPwndApi api;
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("hibp-screener");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/breachedaccount/", this::handle);
+        server.start();
+        api = HaveIBeenPwndBuilder.create("haveibeenpwned-test")
+                .withHaveIBeenPwndUrl("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/")
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testResumeAfterFailure() throws Exception {
+        Path output = dir.resolve("results.ndjson");
+        failing.add("fail@example.com");
+        AccountScreener first = api.createAccountScreener(output).withConcurrency(1).withCheckpointInterval(2);
+        try {
+            first.run(ACCOUNTS.stream());
+            fail("The run did not stop");
+        } catch (HaveIBeenPwndException ex) {
+            assertTrue(ex.getMessage().startsWith("Bad request"));
+        }
+        assertEquals(Arrays.asList("a@example.com", "b@example.com", "c@example.com", "fail@example.com"), requested);
+        assertEquals(1, first.getDuplicates());
+        assertEquals(3, Files.readAllLines(output).size());
+
+        failing.clear();
+        requested.clear();
+        AccountScreener second = api.createAccountScreener(output).withConcurrency(1).withCheckpointInterval(2);
+        assertEquals(2, second.run(ACCOUNTS.stream()));
+        assertEquals(6, second.getResumedLines());
+        assertEquals(Arrays.asList("fail@example.com", "d@example.com"), requested);
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(5, lines.size());
+        assertEquals("{\"account\":\"a@example.com\",\"pwned\":false,\"breaches\":[]}", lines.get(0));
+        assertEquals("{\"account\":\"b@example.com\",\"pwned\":true,\"breaches\":[\"Adobe\"]}", lines.get(1));
+        assertEquals("{\"account\":\"d@example.com\",\"pwned\":true,\"breaches\":[\"Adobe\"]}", lines.get(4));
+        assertEquals(Arrays.asList("8 " + Files.size(output)), Files.readAllLines(dir.resolve("results.ndjson.checkpoint")));
+
+        requested.clear();
+        assertEquals(0, api.createAccountScreener(output).run(ACCOUNTS.stream()));
+        assertTrue(requested.isEmpty());
+    }
+
+    @Test
+    public void testScreenAccountsNormalisesLikeScreener() throws HaveIBeenPwndException {
+        Map<String, List<Breach>> breached = api.screenAccounts(ACCOUNTS.stream().filter(account -> !account.startsWith("fail")));
+        assertEquals(2, breached.size());
+        assertEquals("Adobe", breached.get("b@example.com").get(0).getName());
+        assertEquals("Adobe", breached.get("d@example.com").get(0).getName());
+        assertEquals(4, requested.size());
+    }
+
+    @Test(expected = HaveIBeenPwndException.class)
+    public void testScreenAccountsStopsOnFailure() throws HaveIBeenPwndException {
+        failing.add("fail@example.com");
+        api.screenAccounts(ACCOUNTS.stream());
+    }
+
+    /**
+     * Accounts starting with b or d are in the Adobe breach, and the others
+     * are in none.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getRawPath();
+        String account = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8");
+        requested.add(account);
+        byte[] body;
+        int code;
+        if (failing.contains(account)) {
+            code = 400;
+            body = new byte[0];
+        } else if (account.startsWith("b") || account.startsWith("d")) {
+            code = 200;
+            body = "[{\"Name\":\"Adobe\"}]".getBytes(StandardCharsets.UTF_8);
+        } else {
+            code = 404;
+            body = new byte[0];
+        }
+        exchange.getResponseHeaders().put("Content-Type", Collections.singletonList("application/json"));
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package me.legrange.haveibeenpwned;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the indexed queries of the breach catalogue.
+ *
+ * @author gideon
+ */
+public class BreachCatalogueTest {
+
+    private static final String BREACHES = "["
+            + "{\"Name\":\"Adobe\",\"Domain\":\"adobe.com\",\"IsVerified\":true,"
+            + "\"DataClasses\":[\"Email addresses\",\"Passwords\"]},"
+            + "{\"Name\":\"AdobeForums\",\"Domain\":\"Adobe.com\",\"IsVerified\":false,\"IsSensitive\":true,"
+            + "\"DataClasses\":[\"Usernames\"]},"
+            + "{\"Name\":\"SpamList\",\"Domain\":\"\",\"IsVerified\":true,\"IsSpamList\":true,"
+            + "\"DataClasses\":[\"Email addresses\"]}"
+            + "]";
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final BreachCatalogue catalogue = new BreachCatalogue(new BreachCatalogue.Loader() {
+
+        @Override
+        public List<Breach> loadBreaches() {
+            loads.incrementAndGet();
+            return new Gson().fromJson(BREACHES, new TypeToken<List<Breach>>() {
+            }.getType());
+        }
+
+        @Override
+        public List<String> loadDataClasses() {
+            return Arrays.asList("Email addresses", "Passwords", "Usernames");
+        }
+
+    }, Duration.ofHours(1));
+
+    @Test
+    public void testLookups() throws HaveIBeenPwndException {
+        assertEquals(3, catalogue.getAll().size());
+        assertEquals("Adobe", catalogue.getByName("adobe").get().getName());
+        assertFalse(catalogue.getByName("nope").isPresent());
+        assertEquals(2, catalogue.getByDomain("ADOBE.COM").size());
+        assertEquals(0, catalogue.getByDomain("example.com").size());
+        assertEquals(2, catalogue.getByDataClass("email addresses").size());
+        assertEquals(0, catalogue.getByDataClass("Nothing").size());
+        assertEquals(3, catalogue.getDataClasses().size());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testQueries() throws HaveIBeenPwndException {
+        assertEquals(2, catalogue.query().verified(true).count());
+        assertEquals("SpamList", catalogue.query().verified(true).withDataClass("Email addresses").spamList(true).list().get(0).getName());
+        assertEquals(1, catalogue.query().verified(true).spamList(false).count());
+        assertEquals("AdobeForums", catalogue.query().sensitive(true).list().get(0).getName());
+    }
+
+    @Test
+    public void testRefreshWithoutChanges() throws HaveIBeenPwndException {
+        catalogue.getAll();
+        assertFalse(catalogue.refresh());
+        assertTrue(catalogue.isLoaded());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDomainIndexCannotBeChanged() throws HaveIBeenPwndException {
+        catalogue.getByDomain("adobe.com").clear();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBreachesCannotBeChanged() throws HaveIBeenPwndException {
+        catalogue.getAll().clear();
+    }
+
+}
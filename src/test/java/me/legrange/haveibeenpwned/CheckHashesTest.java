@@ -0,0 +1,97 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests checking many hashes at once against a local range server.
+ *
+ * @author gideon
+ */
+public class CheckHashesTest {
+
+    private static final String[] HASHES = {
+        "0A1B2C3D4E5F60718293A4B5C6D7E8F901234567",
+        "5BAA600000000000000000000000000000000001",
+        "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8",
+        "FFFFF00000000000000000000000000000000000"
+    };
+    private static final int[] COUNTS = {7, 1, 10434004, 3};
+
+    private Path dir;
+    private PwnedPasswordsCorpus corpus;
+    private RangeFile ranges;
+    private RangeServer server;
+    private HaveIBeenPwndApi api;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("hibp-check-hashes");
+        corpus = PwnedPasswordsCorpusTest.create(dir.resolve("pwnedpasswords.bin"), PasswordHasher.SHA1_LENGTH, HASHES, COUNTS);
+        ranges = RangeFile.create(corpus, dir.resolve("pwnedpasswords.ranges"));
+        server = new RangeServer(ranges).start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        api = HaveIBeenPwndBuilder.create("haveibeenpwned-test")
+                .withPwndPasswordsUrl(server.getUrl())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        ranges.close();
+        corpus.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testFetchesEachRangeOnce() throws HaveIBeenPwndException {
+        List<String> hashes = Arrays.asList(
+                "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8",
+                "5baa600000000000000000000000000000000001",
+                "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9",
+                "FFFFF00000000000000000000000000000000000",
+                "1234500000000000000000000000000000000000");
+        Map<String, Integer> res = api.checkHashes(hashes);
+        assertEquals(5, res.size());
+        assertEquals(10434004, (int) res.get("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8"));
+        assertEquals(1, (int) res.get("5baa600000000000000000000000000000000001"));
+        assertEquals(0, (int) res.get("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9"));
+        assertEquals(3, (int) res.get("FFFFF00000000000000000000000000000000000"));
+        assertEquals(0, (int) res.get("1234500000000000000000000000000000000000"));
+        assertEquals(3, server.getRequests());
+    }
+
+    @Test
+    public void testNoHashes() throws HaveIBeenPwndException {
+        assertEquals(0, api.checkHashes(Collections.emptyList()).size());
+        assertEquals(0, server.getRequests());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedHashIsRejected() throws HaveIBeenPwndException {
+        api.checkHashes(Arrays.asList("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8", "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FDX"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortHashIsRejected() throws HaveIBeenPwndException {
+        api.checkHashes(Collections.singletonList("5BAA6"));
+    }
+
+}
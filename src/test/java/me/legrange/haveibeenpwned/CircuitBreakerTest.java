@@ -0,0 +1,123 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests when the circuit breaker opens and closes, and that only its trial
+ * call decides if a half open breaker closes.
+ *
+ * @author gideon
+ */
+public class CircuitBreakerTest {
+
+    private static final Duration SLOW = Duration.ofSeconds(1);
+
+    @Test
+    public void testOpensWhenRecentCallsFail() {
+        CircuitBreaker breaker = new CircuitBreaker(SLOW, 0.5, Duration.ofHours(1));
+        for (int i = 0; i < 9; ++i) {
+            breaker.onFailure(breaker.allowRequest());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onSuccess(breaker.allowRequest(), 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.REJECTED, breaker.allowRequest());
+        assertEquals(1, breaker.getRejected());
+        assertEquals(1, breaker.getTrips());
+    }
+
+    @Test
+    public void testSlowCallsCountAsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(SLOW, 1, Duration.ofHours(1));
+        for (int i = 0; i < 10; ++i) {
+            breaker.onSuccess(breaker.allowRequest(), SLOW.toNanos() + 1);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testTrialClosesBreaker() {
+        CircuitBreaker breaker = open(Duration.ZERO);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        CircuitBreaker.Permit trial = breaker.allowRequest();
+        assertEquals(CircuitBreaker.Permit.TRIAL, trial);
+        assertEquals(CircuitBreaker.Permit.REJECTED, breaker.allowRequest());
+        breaker.onSuccess(trial, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate(), 0);
+        assertEquals(CircuitBreaker.Permit.CALL, breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedTrialReopensBreaker() {
+        CircuitBreaker breaker = open(Duration.ZERO);
+        breaker.onFailure(breaker.allowRequest());
+        assertEquals(2, breaker.getTrips());
+    }
+
+    @Test
+    public void testIgnoredTrialLetsAnotherTrialThrough() {
+        CircuitBreaker breaker = open(Duration.ZERO);
+        breaker.onIgnored(breaker.allowRequest());
+        assertEquals(CircuitBreaker.Permit.TRIAL, breaker.allowRequest());
+    }
+
+    @Test
+    public void testLateCallDoesNotDecideTrial() {
+        CircuitBreaker breaker = new CircuitBreaker(SLOW, 0.5, Duration.ZERO);
+        CircuitBreaker.Permit late = breaker.allowRequest();
+        for (int i = 0; i < 10; ++i) {
+            breaker.onFailure(breaker.allowRequest());
+        }
+        CircuitBreaker.Permit trial = breaker.allowRequest();
+        assertEquals(CircuitBreaker.Permit.TRIAL, trial);
+        breaker.onSuccess(late, 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.REJECTED, breaker.allowRequest());
+        breaker.onFailure(trial);
+        assertEquals(2, breaker.getTrips());
+    }
+
+    @Test
+    public void testErrorInCallReleasesTrial() throws IOException {
+        CircuitBreaker breaker = open(Duration.ZERO);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new CircuitBreakerInterceptor(Collections.singletonMap("breaker.test", breaker)))
+                .addInterceptor(chain -> {
+                    throw new AssertionError("failed");
+                })
+                .callTimeout(5, TimeUnit.SECONDS)
+                .build();
+        Request request = new Request.Builder().url("http://breaker.test/").build();
+        try {
+            client.newCall(request).execute();
+            fail("The call did not fail");
+        } catch (AssertionError ex) {
+            assertEquals("failed", ex.getMessage());
+        }
+        assertEquals(CircuitBreaker.Permit.TRIAL, breaker.allowRequest());
+    }
+
+    /**
+     * Make a breaker and fail enough calls to open it.
+     */
+    private static CircuitBreaker open(Duration openDuration) {
+        CircuitBreaker breaker = new CircuitBreaker(SLOW, 0.5, openDuration);
+        for (int i = 0; i < 10; ++i) {
+            breaker.onFailure(breaker.allowRequest());
+        }
+        assertEquals(1, breaker.getTrips());
+        return breaker;
+    }
+
+}
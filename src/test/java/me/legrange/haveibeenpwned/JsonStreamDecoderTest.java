@@ -0,0 +1,123 @@
+package me.legrange.haveibeenpwned;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that streaming decoding gives the same objects as Gson decoding the
+ * whole response, and that unwanted fields are left out.
+ *
+ * @author gideon
+ */
+public class JsonStreamDecoderTest {
+
+    private static final String BREACHES = "["
+            + "{\"Name\":\"Adobe\",\"Title\":\"Adobe\",\"Domain\":\"adobe.com\","
+            + "\"BreachDate\":\"2013-10-04T00:00:00Z\",\"AddedDate\":\"2013-12-04T00:00:00Z\","
+            + "\"PwnCount\":152445165,\"Description\":\"In October 2013...\","
+            + "\"DataClasses\":[\"Email addresses\",\"Passwords\"],\"IsVerified\":true,"
+            + "\"IsSensitive\":false,\"LogoPath\":null,\"Unknown\":{\"Nested\":[1,2,3]}},"
+            + "{\"Name\":\"Gawker\",\"Domain\":\"gawker.com\",\"PwnCount\":1247574,"
+            + "\"IsVerified\":true,\"IsRetired\":true,\"DataClasses\":[]}"
+            + "]";
+
+    private Gson gson;
+    private JsonStreamDecoder<Breach> decoder;
+
+    @Before
+    public void setUp() {
+        gson = new GsonBuilder().setLenient().create();
+        decoder = new JsonStreamDecoder<>(gson, Breach.class);
+    }
+
+    @Test
+    public void testDecodeMatchesGson() throws IOException {
+        List<Breach> expected = gson.fromJson(BREACHES, new TypeToken<List<Breach>>() {
+        }.getType());
+        List<Breach> actual = decode(BREACHES, null);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Breach e = expected.get(i);
+            Breach a = actual.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getTitle(), a.getTitle());
+            assertEquals(e.getDomain(), a.getDomain());
+            assertEquals(e.getBreachDate(), a.getBreachDate());
+            assertEquals(e.getAddedDate(), a.getAddedDate());
+            assertEquals(e.getPwnCount(), a.getPwnCount());
+            assertEquals(e.getDescription(), a.getDescription());
+            assertEquals(e.getDataClasses(), a.getDataClasses());
+            assertEquals(e.isVerified(), a.isVerified());
+            assertEquals(e.isRetired(), a.isRetired());
+            assertEquals(e.getLogoPath(), a.getLogoPath());
+        }
+        assertEquals(Arrays.asList("Email addresses", "Passwords"), actual.get(0).getDataClasses());
+        assertTrue(actual.get(1).isRetired());
+    }
+
+    @Test
+    public void testOnlyRequestedFieldsAreDecoded() throws IOException {
+        List<Breach> breaches = decode(BREACHES, new HashSet<>(Arrays.asList("Name", "PwnCount")));
+        assertEquals(2, breaches.size());
+        assertEquals("Adobe", breaches.get(0).getName());
+        assertEquals(152445165, breaches.get(0).getPwnCount());
+        assertNull(breaches.get(0).getDomain());
+        assertNull(breaches.get(0).getBreachDate());
+        assertNull(breaches.get(0).getDataClasses());
+        assertFalse(breaches.get(0).isVerified());
+        assertEquals("Gawker", breaches.get(1).getName());
+    }
+
+    @Test
+    public void testSingleObjectIsAccepted() throws IOException {
+        List<Breach> breaches = decode("{\"Name\":\"Adobe\",\"PwnCount\":1}", null);
+        assertEquals(1, breaches.size());
+        assertEquals("Adobe", breaches.get(0).getName());
+    }
+
+    @Test
+    public void testOtherValuesAreSkipped() throws IOException {
+        assertEquals(0, decode("null", null).size());
+        assertEquals(0, decode("[]", null).size());
+    }
+
+    @Test
+    public void testPastesAreDecoded() throws IOException {
+        JsonStreamDecoder<Paste> pastes = new JsonStreamDecoder<>(gson, Paste.class);
+        List<Paste> res = new ArrayList<>();
+        pastes.decode(new StringReader("[{\"Source\":\"Pastebin\",\"Id\":\"8Q0BvKD8\",\"Title\":null,\"EmailCount\":139}]"), null, res::add);
+        assertEquals(1, res.size());
+        assertEquals("Pastebin", res.get(0).getSource());
+        assertEquals("8Q0BvKD8", res.get(0).getId());
+        assertNull(res.get(0).getTitle());
+        assertEquals(139, res.get(0).getEmailCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedJsonFails() throws IOException {
+        decode(BREACHES.substring(0, BREACHES.length() / 2), null);
+    }
+
+    private List<Breach> decode(String json, Set<String> fields) throws IOException {
+        List<Breach> res = new ArrayList<>();
+        decoder.decode(new StringReader(json), fields, res::add);
+        return res;
+    }
+
+}
@@ -0,0 +1,68 @@
+package me.legrange.haveibeenpwned;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the size limit, eviction order and expiry of the range cache.
+ *
+ * @author gideon
+ */
+public class LruRangeCacheTest {
+
+    private static final PwnedRange R1 = PwnedRangeTest.range("11111", "1111100000000000000000000000000000000001", 1);
+    private static final PwnedRange R2 = PwnedRangeTest.range("22222", "2222200000000000000000000000000000000001", 2);
+    private static final PwnedRange R3 = PwnedRangeTest.range("33333", "3333300000000000000000000000000000000001", 3);
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LruRangeCache cache = new LruRangeCache(2 * R1.sizeInBytes(), Duration.ofHours(1));
+        cache.put(R1);
+        cache.put(R2);
+        assertSame(R1, cache.get("11111"));
+        cache.put(R3);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(R1, cache.get("11111"));
+        assertNull(cache.get("22222"));
+        assertSame(R3, cache.get("33333"));
+        assertEquals(R1.sizeInBytes() + R3.sizeInBytes(), cache.getSizeInBytes());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testReplaceKeepsSize() {
+        LruRangeCache cache = new LruRangeCache(1024, Duration.ofHours(1));
+        cache.put(R1);
+        PwnedRange again = PwnedRangeTest.range("11111", "1111100000000000000000000000000000000001", 5);
+        cache.put(again);
+        assertEquals(1, cache.size());
+        assertEquals(again.sizeInBytes(), cache.getSizeInBytes());
+        assertSame(again, cache.get("11111"));
+    }
+
+    @Test
+    public void testRangeLargerThanCacheIsNotKept() {
+        LruRangeCache cache = new LruRangeCache(R1.sizeInBytes() - 1, Duration.ofHours(1));
+        cache.put(R1);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void testExpiredRangesAreStale() throws InterruptedException {
+        LruRangeCache cache = new LruRangeCache(1024, Duration.ofMillis(1));
+        cache.put(R1);
+        Thread.sleep(5);
+        assertNull(cache.get("11111"));
+        assertSame(R1, cache.getStale("11111"));
+        assertSame(R1, cache.getStale("11111".toLowerCase()));
+    }
+
+}
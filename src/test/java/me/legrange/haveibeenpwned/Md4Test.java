@@ -0,0 +1,60 @@
+package me.legrange.haveibeenpwned;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests MD4 against the test suite of RFC 1320, and NT hashes against known
+ * values.
+ *
+ * @author gideon
+ */
+public class Md4Test {
+
+    @Test
+    public void testRfc1320Vectors() {
+        Md4 md4 = new Md4();
+        assertEquals("31D6CFE0D16AE931B73C59D7E0C089C0", digest(md4, ""));
+        assertEquals("BDE52CB31DE33E46245E05FBDBD6FB24", digest(md4, "a"));
+        assertEquals("A448017AAF21D8525FC10AE87AA6729D", digest(md4, "abc"));
+        assertEquals("D9130A8164549FE818874806E1C7014B", digest(md4, "message digest"));
+        assertEquals("D79E1C308AA5BBCDEEA8ED63DF412DA9", digest(md4, "abcdefghijklmnopqrstuvwxyz"));
+        assertEquals("043F8582F241DB351CE627E153E7F0E4",
+                digest(md4, "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"));
+        assertEquals("E33B4DDC9C38F2199C3E7B164FCC0536",
+                digest(md4, "12345678901234567890123456789012345678901234567890123456789012345678901234567890"));
+    }
+
+    @Test
+    public void testDigestUsesOnlyLength() {
+        Md4 md4 = new Md4();
+        byte[] data = "abcdef".getBytes(StandardCharsets.US_ASCII);
+        byte[] hash = new byte[Md4.LENGTH];
+        md4.digest(data, 3, hash);
+        assertEquals("A448017AAF21D8525FC10AE87AA6729D", PasswordHasher.toHex(hash));
+    }
+
+    @Test
+    public void testNtHashes() {
+        assertEquals("8846F7EAEE8FB117AD06BDD830B7586C", ntHash("password"));
+        assertEquals("31D6CFE0D16AE931B73C59D7E0C089C0", ntHash(""));
+        assertEquals("32ED87BDB5FDC5E9CBA88547376818D4", ntHash("123456"));
+    }
+
+    private static String digest(Md4 md4, String text) {
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        byte[] hash = new byte[Md4.LENGTH];
+        md4.digest(data, data.length, hash);
+        return PasswordHasher.toHex(hash);
+    }
+
+    private static String ntHash(String password) {
+        byte[] hash = new byte[PasswordHasher.NTLM_LENGTH];
+        PasswordHasher.ntlm(password.toCharArray(), hash);
+        return PasswordHasher.toHex(hash);
+    }
+
+}
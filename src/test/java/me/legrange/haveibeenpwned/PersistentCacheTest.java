@@ -0,0 +1,100 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that a persistent cache can be reopened after its files were left
+ * in a bad state.
+ *
+ * @author gideon
+ */
+public class PersistentCacheTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("hibp-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReopenAfterTruncatedTail() throws Exception {
+        try (PersistentCache cache = PersistentCache.open(dir, TTL)) {
+            cache.put("breaches", "first", bytes("one"));
+            cache.put("breaches", "second", bytes("two"));
+        }
+        Path log = dir.resolve("cache.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+        try (PersistentCache cache = PersistentCache.open(dir, TTL)) {
+            assertEquals("one", string(cache.get("breaches", "first")));
+            assertNull(cache.get("breaches", "second"));
+            cache.put("breaches", "third", bytes("three"));
+        }
+        try (PersistentCache cache = PersistentCache.open(dir, TTL)) {
+            assertEquals("one", string(cache.get("breaches", "first")));
+            assertNull(cache.get("breaches", "second"));
+            assertEquals("three", string(cache.get("breaches", "third")));
+            assertEquals(0, cache.getErrors());
+        }
+    }
+
+    @Test
+    public void testReopenWithIndexFromOtherGeneration() throws Exception {
+        try (PersistentCache cache = PersistentCache.open(dir, TTL)) {
+            cache.put("breaches", "first", bytes("a long first value"));
+            cache.put("breaches", "second", bytes("two"));
+        }
+        Path index = dir.resolve("cache.idx");
+        Path stale = dir.resolve("cache.idx.old");
+        Files.copy(index, stale);
+        try (PersistentCache cache = PersistentCache.open(dir, TTL)) {
+            cache.put("breaches", "first", bytes("one"));
+            cache.put("breaches", "third", bytes("three"));
+            cache.compact();
+        }
+        Files.move(stale, index, StandardCopyOption.REPLACE_EXISTING);
+        try (PersistentCache cache = PersistentCache.open(dir, TTL)) {
+            assertEquals("one", string(cache.get("breaches", "first")));
+            assertEquals("two", string(cache.get("breaches", "second")));
+            assertEquals("three", string(cache.get("breaches", "third")));
+            assertEquals(3, cache.size());
+            assertEquals(0, cache.getErrors());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+}
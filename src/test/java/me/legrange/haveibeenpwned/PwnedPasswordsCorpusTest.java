@@ -0,0 +1,120 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests lookups in a local corpus, and password checks answered from it.
+ *
+ * @author gideon
+ */
+public class PwnedPasswordsCorpusTest {
+
+    private static final String PASSWORD_HASH = "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8";
+    private static final String[] HASHES = {
+        "0000000000000000000000000000000000000001",
+        "5BAA600000000000000000000000000000000001",
+        PASSWORD_HASH,
+        "5BAA6F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F",
+        "5BAA700000000000000000000000000000000000",
+        "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF"
+    };
+    private static final int[] COUNTS = {5, 1, 10434004, 42, 9, 3};
+
+    private Path dir;
+    private PwnedPasswordsCorpus corpus;
+
+    @Before
+    public void setUp() throws IOException, HaveIBeenPwndException {
+        dir = Files.createTempDirectory("hibp-corpus");
+        corpus = create(dir.resolve("pwnedpasswords.bin"), PasswordHasher.SHA1_LENGTH, HASHES, COUNTS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        corpus.close();
+        Files.delete(dir.resolve("pwnedpasswords.bin"));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testGetCount() {
+        assertEquals(HASHES.length, corpus.size());
+        assertEquals(PasswordHasher.SHA1_LENGTH, corpus.getHashLength());
+        for (int i = 0; i < HASHES.length; ++i) {
+            assertEquals(COUNTS[i], corpus.getCount(HASHES[i]));
+            assertEquals(COUNTS[i], corpus.getCount(PwnedRangeTest.bytes(HASHES[i])));
+        }
+        assertEquals(10434004, corpus.getCount(PASSWORD_HASH.toLowerCase()));
+    }
+
+    @Test
+    public void testGetCountOfMissingHash() {
+        assertEquals(0, corpus.getCount("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9"));
+        assertEquals(0, corpus.getCount("5BAA600000000000000000000000000000000000"));
+        assertEquals(0, corpus.getCount("123450000000000000000000000000000000000A"));
+        assertEquals(0, corpus.getCount(PwnedRangeTest.bytes("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFE")));
+        assertEquals(0, corpus.getCount(PASSWORD_HASH.substring(0, 32)));
+        assertEquals(0, corpus.getCount(new byte[16]));
+    }
+
+    @Test
+    public void testSearchByRange() {
+        List<PwnedHash> range = corpus.searchByRange("5baa6");
+        assertEquals(3, range.size());
+        assertEquals("00000000000000000000000000000000001", range.get(0).getHash());
+        assertEquals(PASSWORD_HASH.substring(5), range.get(1).getHash());
+        assertEquals(10434004, range.get(1).getCount());
+        assertEquals(42, range.get(2).getCount());
+        assertEquals(1, corpus.searchByRange("00000").size());
+        assertEquals(1, corpus.searchByRange("FFFFF").size());
+        assertEquals(0, corpus.searchByRange("12345").size());
+    }
+
+    @Test
+    public void testPasswordChecksUseCorpus() throws HaveIBeenPwndException {
+        HaveIBeenPwndApi api = HaveIBeenPwndBuilder.create("haveibeenpwned-test")
+                .withPwndPasswordsUrl("http://localhost:1/")
+                .withLocalCorpus(corpus)
+                .build();
+        assertTrue(api.isPlainPasswordPwned("password"));
+        assertEquals(10434004, api.getPwnedCount(PASSWORD_HASH));
+        assertFalse(api.isHashPasswordPwned("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9"));
+        assertEquals(3, api.searchByRange("5BAA6").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNtlmCorpusIsRejected() throws IOException, HaveIBeenPwndException {
+        String[] hashes = {"8846F7EAEE8FB117AD06BDD830B7586C"};
+        try (PwnedPasswordsCorpus ntlm = create(dir.resolve("ntlm.bin"), PasswordHasher.NTLM_LENGTH, hashes, new int[]{1})) {
+            HaveIBeenPwndBuilder.create("haveibeenpwned-test").withLocalCorpus(ntlm);
+        } finally {
+            Files.deleteIfExists(dir.resolve("ntlm.bin"));
+        }
+    }
+
+    /**
+     * Write a corpus of hex hashes, which must be in ascending order, and
+     * open it.
+     */
+    static PwnedPasswordsCorpus create(Path file, int hashLength, String[] hashes, int[] counts) throws IOException, HaveIBeenPwndException {
+        try (CorpusWriter writer = new CorpusWriter(file, hashLength)) {
+            for (int i = 0; i < hashes.length; ++i) {
+                writer.write(PwnedRangeTest.bytes(hashes[i]), counts[i]);
+            }
+            writer.finish();
+        }
+        return PwnedPasswordsCorpus.open(file);
+    }
+
+}
@@ -0,0 +1,150 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the Bloom filter built from a corpus: it has no false negatives,
+ * about the false positive rate it was built with, and survives being
+ * reopened.
+ *
+ * @author gideon
+ */
+public class PwnedPasswordsFilterTest {
+
+    private static final int HASHES = 20000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private Path dir;
+    private String[] hashes;
+    private PwnedPasswordsCorpus corpus;
+    private PwnedPasswordsFilter filter;
+
+    @Before
+    public void setUp() throws IOException, HaveIBeenPwndException {
+        dir = Files.createTempDirectory("hibp-filter");
+        hashes = new String[HASHES];
+        for (int i = 0; i < HASHES; ++i) {
+            hashes[i] = sha1("in-" + i);
+        }
+        Arrays.sort(hashes);
+        int[] counts = new int[HASHES];
+        Arrays.fill(counts, 1);
+        corpus = PwnedPasswordsCorpusTest.create(dir.resolve("pwnedpasswords.bin"), PasswordHasher.SHA1_LENGTH, hashes, counts);
+        filter = PwnedPasswordsFilter.create(corpus, FALSE_POSITIVE_RATE, dir.resolve("pwnedpasswords.filter"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        filter.close();
+        corpus.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        assertEquals(HASHES, filter.size());
+        for (String hash : hashes) {
+            assertTrue(filter.mightContain(hash));
+            assertTrue(filter.mightContain(hash.toLowerCase()));
+            assertTrue(filter.mightContain(PwnedRangeTest.bytes(hash)));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        int positives = 0;
+        for (int i = 0; i < HASHES; ++i) {
+            String hash = sha1("out-" + i);
+            boolean hex = filter.mightContain(hash);
+            assertEquals(hex, filter.mightContain(PwnedRangeTest.bytes(hash)));
+            if (hex) {
+                ++positives;
+            }
+        }
+        double rate = (double) positives / HASHES;
+        assertTrue("False positive rate is " + rate, rate < FALSE_POSITIVE_RATE * 2);
+        assertTrue(filter.getFalsePositiveRate() < FALSE_POSITIVE_RATE);
+    }
+
+    @Test
+    public void testShortHashesMightBePwned() {
+        assertTrue(filter.mightContain("5BAA6"));
+        assertTrue(filter.mightContain(new byte[8]));
+    }
+
+    @Test
+    public void testReopen() throws IOException, HaveIBeenPwndException {
+        assertEquals(corpus.getBuilt().toEpochMilli(), filter.getCorpusBuilt().toEpochMilli());
+        try (PwnedPasswordsFilter reopened = PwnedPasswordsFilter.open(dir.resolve("pwnedpasswords.filter"))) {
+            assertEquals(filter.size(), reopened.size());
+            assertEquals(filter.sizeInBytes(), reopened.sizeInBytes());
+            assertEquals(filter.getCorpusBuilt(), reopened.getCorpusBuilt());
+            for (int i = 0; i < HASHES; i += 97) {
+                assertTrue(reopened.mightContain(hashes[i]));
+            }
+            String miss = sha1("out-0");
+            assertEquals(filter.mightContain(miss), reopened.mightContain(miss));
+        }
+        assertEquals(64 + filter.sizeInBytes(), Files.size(dir.resolve("pwnedpasswords.filter")));
+    }
+
+    @Test(expected = HaveIBeenPwndException.class)
+    public void testBadMagicIsRejected() throws IOException, HaveIBeenPwndException {
+        Path file = dir.resolve("pwnedpasswords.filter");
+        write(file, 0, 0x12345678);
+        PwnedPasswordsFilter.open(file);
+    }
+
+    @Test(expected = HaveIBeenPwndException.class)
+    public void testOtherVersionIsRejected() throws IOException, HaveIBeenPwndException {
+        Path file = dir.resolve("pwnedpasswords.filter");
+        write(file, 4, 1);
+        PwnedPasswordsFilter.open(file);
+    }
+
+    @Test(expected = HaveIBeenPwndException.class)
+    public void testTruncatedFileIsRejected() throws IOException, HaveIBeenPwndException {
+        Path file = dir.resolve("pwnedpasswords.filter");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 64);
+        }
+        PwnedPasswordsFilter.open(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadFalsePositiveRateIsRejected() throws HaveIBeenPwndException {
+        PwnedPasswordsFilter.create(corpus, 1, dir.resolve("bad.filter"));
+    }
+
+    private static String sha1(String password) {
+        byte[] hash = new byte[PasswordHasher.SHA1_LENGTH];
+        PasswordHasher.sha1(password.toCharArray(), hash);
+        return PasswordHasher.toHex(hash);
+    }
+
+    private static void write(Path file, long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(4).putInt(value);
+            buf.flip();
+            channel.write(buf, position);
+        }
+    }
+
+}
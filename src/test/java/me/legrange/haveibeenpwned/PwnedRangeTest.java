@@ -0,0 +1,79 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests building and searching compact ranges.
+ *
+ * @author gideon
+ */
+public class PwnedRangeTest {
+
+    static final String A = "5BAA600000000000000000000000000000000001";
+    static final String B = "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8";
+    static final String C = "5BAA6F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F";
+
+    @Test
+    public void testBuildSortsHashes() {
+        PwnedRange range = range("5baa6", C, 42, A, 1, B, 10434004);
+        assertEquals("5BAA6", range.getPrefix());
+        assertEquals(3, range.size());
+        List<PwnedHash> hashes = range.toList();
+        assertEquals(A.substring(5), hashes.get(0).getHash());
+        assertEquals(1, hashes.get(0).getCount());
+        assertEquals(B.substring(5), hashes.get(1).getHash());
+        assertEquals(C.substring(5), hashes.get(2).getHash());
+        assertEquals(42, hashes.get(2).getCount());
+    }
+
+    @Test
+    public void testGetCount() {
+        PwnedRange range = range("5BAA6", A, 1, B, 10434004, C, 42);
+        assertEquals(10434004, range.getCount(B));
+        assertEquals(10434004, range.getCount(B.toLowerCase()));
+        assertEquals(10434004, range.getCount(bytes(B)));
+        assertEquals(42, range.getCount(bytes(C)));
+        assertEquals(0, range.getCount("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9"));
+        assertEquals(0, range.getCount(bytes("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9")));
+    }
+
+    @Test
+    public void testGetCountChecksPrefixAndLength() {
+        PwnedRange range = range("5BAA6", B, 10434004);
+        assertEquals(0, range.getCount("5BAA71E4C9B93F3F0682250B6CF8331B7EE68FD8"));
+        assertEquals(0, range.getCount(bytes("5BAA71E4C9B93F3F0682250B6CF8331B7EE68FD8")));
+        assertEquals(0, range.getCount(B.substring(0, 32)));
+    }
+
+    @Test
+    public void testEmptyRange() {
+        PwnedRange range = range("00000");
+        assertEquals(0, range.size());
+        assertEquals(0, range.getCount(B));
+        assertEquals(0, range.toList().size());
+    }
+
+    /**
+     * Build a SHA1 range from pairs of hex hashes and counts.
+     */
+    static PwnedRange range(String hash5, Object... hashesAndCounts) {
+        PwnedRange.Builder builder = new PwnedRange.Builder(hash5, PasswordHasher.SHA1_LENGTH);
+        for (int i = 0; i < hashesAndCounts.length; i += 2) {
+            builder.add(bytes((String) hashesAndCounts[i]), (Integer) hashesAndCounts[i + 1]);
+        }
+        return builder.build();
+    }
+
+    static byte[] bytes(String hex) {
+        byte[] res = new byte[hex.length() / 2];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,95 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests parsing range responses, including padding lines and stopping early
+ * once a hash has been found.
+ *
+ * @author gideon
+ */
+public class RangeParserTest {
+
+    private static final String PASSWORD_HASH = "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8";
+    private static final String RANGE = "00000000000000000000000000000000001:1\r\n"
+            + "0000000000000000000000000000000000F:0\r\n"
+            + "1E4C9B93F3F0682250B6CF8331B7EE68FD8:10434004\r\n"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA:0\r\n"
+            + "F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F:42\r\n"
+            + "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF:0";
+
+    @Test
+    public void testParseSkipsPadding() throws IOException {
+        PwnedRange range = RangeParser.parse("5BAA6", PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8(RANGE));
+        assertEquals(3, range.size());
+        assertEquals(10434004, range.getCount(PASSWORD_HASH));
+        assertEquals(42, range.getCount("5BAA6F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F"));
+        assertEquals(0, range.getCount("5BAA6AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+    }
+
+    @Test
+    public void testReadGivesFullHashes() throws IOException {
+        List<String> hashes = new ArrayList<>();
+        RangeParser.read("5baa6", PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8("\r\n" + RANGE + "\r\n\r\n"),
+                (hash, count) -> hashes.add(PasswordHasher.toHex(hash) + ":" + count));
+        assertEquals(3, hashes.size());
+        assertEquals("5BAA600000000000000000000000000000000001:1", hashes.get(0));
+        assertEquals(PASSWORD_HASH + ":10434004", hashes.get(1));
+    }
+
+    @Test
+    public void testFindCountStopsEarly() throws IOException {
+        Buffer source = new Buffer().writeUtf8(RANGE);
+        assertEquals(10434004, RangeParser.findCount(PASSWORD_HASH, PasswordHasher.SHA1_LENGTH, source));
+        assertTrue(source.size() > 0);
+        source = new Buffer().writeUtf8(RANGE);
+        assertEquals(1, RangeParser.findCount(PwnedRangeTest.bytes("5BAA600000000000000000000000000000000001"),
+                PasswordHasher.SHA1_LENGTH, source));
+        assertTrue(source.size() > 0);
+    }
+
+    @Test
+    public void testFindCountOfMissingHash() throws IOException {
+        Buffer source = new Buffer().writeUtf8(RANGE);
+        assertEquals(0, RangeParser.findCount("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9", PasswordHasher.SHA1_LENGTH, source));
+        assertTrue("The search should stop at the next hash", source.size() > 0);
+        assertEquals(0, RangeParser.findCount("5BAA6FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF",
+                PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8(RANGE)));
+        assertEquals(0, RangeParser.findCount("5BAA6AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+                PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8(RANGE)));
+        assertEquals(0, RangeParser.findCount(PASSWORD_HASH, PasswordHasher.SHA1_LENGTH, new Buffer()));
+    }
+
+    @Test
+    public void testNtlmRange() throws IOException {
+        String range = "7EAEE8FB117AD06BDD830B7586C:2\r\n800000000000000000000000000:0\r\n";
+        assertEquals(2, RangeParser.findCount("8846F7EAEE8FB117AD06BDD830B7586C", PasswordHasher.NTLM_LENGTH,
+                new Buffer().writeUtf8(range)));
+        PwnedRange parsed = RangeParser.parse("8846F", PasswordHasher.NTLM_LENGTH, new Buffer().writeUtf8(range));
+        assertEquals(1, parsed.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testHashTooLong() throws IOException {
+        RangeParser.parse("5BAA6", PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8("1E4C9B93F3F0682250B6CF8331B7EE68FD80:1\r\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testHashTooShort() throws IOException {
+        RangeParser.parse("5BAA6", PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8("1E4C9B93F3F0682250B6CF8331B7EE68FD:1\r\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidDigit() throws IOException {
+        RangeParser.findCount(PASSWORD_HASH, PasswordHasher.SHA1_LENGTH, new Buffer().writeUtf8("1E4C9B93F3F0682250B6CF8331B7EE68FDX:1\r\n"));
+    }
+
+}
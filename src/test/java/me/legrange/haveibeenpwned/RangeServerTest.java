@@ -0,0 +1,159 @@
+package me.legrange.haveibeenpwned;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the range server by checking passwords against it with the API
+ * client, with and without padding.
+ *
+ * @author gideon
+ */
+public class RangeServerTest {
+
+    private static final String PASSWORD_HASH = "5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8";
+    private static final String[] HASHES = {
+        "0A1B2C3D4E5F60718293A4B5C6D7E8F901234567",
+        "5BAA600000000000000000000000000000000001",
+        PASSWORD_HASH,
+        "5BAA6F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F0F",
+        "FFFFF00000000000000000000000000000000000"
+    };
+    private static final int[] COUNTS = {7, 1, 10434004, 42, 3};
+
+    private Path dir;
+    private PwnedPasswordsCorpus corpus;
+    private RangeFile ranges;
+    private RangeServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("hibp-range-server");
+        Path corpusFile = dir.resolve("pwnedpasswords.bin");
+        try (CorpusWriter writer = new CorpusWriter(corpusFile, PasswordHasher.SHA1_LENGTH)) {
+            for (int i = 0; i < HASHES.length; ++i) {
+                writer.write(bytes(HASHES[i]), COUNTS[i]);
+            }
+            writer.finish();
+        }
+        corpus = PwnedPasswordsCorpus.open(corpusFile);
+        ranges = RangeFile.create(corpus, dir.resolve("pwnedpasswords.ranges"));
+        server = new RangeServer(ranges).start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        ranges.close();
+        corpus.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        HaveIBeenPwndApi api = client(false);
+        assertEquals(10434004, api.getPwnedCount(PASSWORD_HASH));
+        assertEquals(1, server.getRequests());
+        assertEquals(rangeBytes("5BAA6"), server.getBytesSent());
+        assertTrue(api.isPlainPasswordPwned("password"));
+        assertFalse(api.isHashPasswordPwned("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9"));
+        assertEquals(3, api.getPwnedCount("FFFFF00000000000000000000000000000000000"));
+        assertRange(api, "5BAA6");
+        assertRange(api, "0A1B2");
+        assertEquals(0, api.searchByRange("12345").size());
+    }
+
+    @Test
+    public void testRoundTripWithPadding() throws Exception {
+        HaveIBeenPwndApi api = client(true);
+        assertEquals(10434004, api.getPwnedCount(PASSWORD_HASH));
+        assertEquals(1, server.getRequests());
+        // padded ranges have at least 800 lines, 3 of which are hashes here
+        long padding = server.getBytesSent() - rangeBytes("5BAA6");
+        assertTrue("The range was not padded", padding >= 797L * ranges.getPaddingLineLength());
+        assertFalse(api.isHashPasswordPwned("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD9"));
+        assertRange(api, "5BAA6");
+        assertEquals(0, api.searchByRange("12345").size());
+    }
+
+    @Test
+    public void testIdleConnectionIsClosed() throws Exception {
+        try (RangeServer idle = new RangeServer(ranges).withThreads(1).withIdleTimeout(Duration.ofMillis(200))
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), idle.getPort())) {
+            socket.setSoTimeout(5000);
+            long start = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(4).toNanos());
+            // the only thread is free again for the next client
+            try (Socket next = new Socket(InetAddress.getLoopbackAddress(), idle.getPort())) {
+                next.setSoTimeout(5000);
+                OutputStream out = next.getOutputStream();
+                out.write("GET /range/5BAA6 HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                InputStream in = next.getInputStream();
+                byte[] status = new byte[15];
+                int read = 0;
+                while (read < status.length) {
+                    read += in.read(status, read, status.length - read);
+                }
+                assertEquals("HTTP/1.1 200 OK", new String(status, StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    private HaveIBeenPwndApi client(boolean padding) throws IOException {
+        return HaveIBeenPwndBuilder.create("haveibeenpwned-test")
+                .withPwndPasswordsUrl(server.getUrl())
+                .addPadding(padding)
+                .build();
+    }
+
+    /**
+     * Check that the client gets the same range from the server as is in the
+     * corpus.
+     */
+    private void assertRange(HaveIBeenPwndApi api, String hash5) throws HaveIBeenPwndException {
+        List<PwnedHash> expected = corpus.searchByRange(hash5);
+        List<PwnedHash> actual = api.searchByRange(hash5);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).getHash(), actual.get(i).getHash());
+            assertEquals(expected.get(i).getCount(), actual.get(i).getCount());
+        }
+    }
+
+    private long rangeBytes(String hash5) {
+        return ranges.getLength(Hex.parse(hash5, 5));
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] res = new byte[hex.length() / 2];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,72 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the rate limiter paces requests one interval apart.
+ *
+ * @author gideon
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testPacesRequests() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(6000); // one request every 10ms
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; ++i) {
+            limiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("11 requests took only " + elapsed + "ms", elapsed >= 100);
+        assertEquals(11, limiter.getRequests());
+        assertEquals(0, limiter.getQueueDepth());
+        assertTrue(limiter.getTotalWaitTime().toMillis() >= 90);
+    }
+
+    @Test
+    public void testNoBurstAfterIdle() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(600); // one request every 100ms
+        Thread.sleep(300);
+        long start = System.nanoTime();
+        limiter.acquire();
+        limiter.acquire();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+    }
+
+    @Test
+    public void testScheduleRunsInOrder() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(6000);
+        StringBuffer order = new StringBuffer();
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; ++i) {
+            int n = i;
+            limiter.schedule(() -> {
+                order.append(n);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("01234", order.toString());
+    }
+
+    @Test
+    public void testBackOffHoldsRequests() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(60000);
+        limiter.backOff(TimeUnit.MILLISECONDS.toNanos(100));
+        long start = System.nanoTime();
+        limiter.acquire();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRateMustBePositive() {
+        new RateLimiter(0);
+    }
+
+}
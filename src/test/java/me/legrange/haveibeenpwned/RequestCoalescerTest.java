@@ -0,0 +1,172 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that concurrent requests for the same key share one load, and that
+ * a failed load is never left in flight.
+ *
+ * @author gideon
+ */
+public class RequestCoalescerTest {
+
+    private RequestCoalescer coalescer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        coalescer = new RequestCoalescer();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentLoadsShareOneRequest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Future<String> first = executor.submit(() -> coalescer.load("key", () -> {
+            loads.incrementAndGet();
+            await(release);
+            return "value";
+        }));
+        waitFor(() -> coalescer.getInFlight() == 1);
+        Future<String> second = executor.submit(() -> coalescer.load("key", () -> {
+            loads.incrementAndGet();
+            return "other";
+        }));
+        waitFor(() -> coalescer.getCoalesced() == 1);
+        release.countDown();
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(2, coalescer.getRequests());
+        assertEquals(0.5, coalescer.getCoalescedRatio(), 0);
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test
+    public void testDifferentKeysDoNotShare() throws HaveIBeenPwndException {
+        assertEquals("a", coalescer.load("a", () -> "a"));
+        assertEquals("b", coalescer.load("b", () -> "b"));
+        assertEquals(0, coalescer.getCoalesced());
+    }
+
+    @Test
+    public void testFailureIsSharedAndCleared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HaveIBeenPwndException failure = new HaveIBeenPwndException("failed");
+        Future<String> first = executor.submit(() -> coalescer.load("key", () -> {
+            await(release);
+            throw failure;
+        }));
+        waitFor(() -> coalescer.getInFlight() == 1);
+        Future<String> second = executor.submit(() -> coalescer.<String>load("key", () -> "other"));
+        waitFor(() -> coalescer.getCoalesced() == 1);
+        release.countDown();
+        assertSame(failure, cause(first));
+        assertSame(failure, cause(second));
+        assertEquals(0, coalescer.getInFlight());
+        assertEquals("again", coalescer.load("key", () -> "again"));
+    }
+
+    @Test
+    public void testErrorIsSharedAndCleared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Error failure = new Error("failed");
+        Future<String> first = executor.submit(() -> coalescer.load("key", () -> {
+            await(release);
+            throw failure;
+        }));
+        waitFor(() -> coalescer.getInFlight() == 1);
+        Future<String> second = executor.submit(() -> coalescer.<String>load("key", () -> "other"));
+        waitFor(() -> coalescer.getCoalesced() == 1);
+        release.countDown();
+        assertSame(failure, cause(first));
+        assertSame(failure, cause(second));
+        assertEquals(0, coalescer.getInFlight());
+        assertEquals("again", coalescer.load("key", () -> "again"));
+    }
+
+    @Test
+    public void testAsyncLoadsShareOneRequest() throws Exception {
+        CompletableFuture<String> request = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> first = coalescer.loadAsync("key", () -> {
+            loads.incrementAndGet();
+            return request;
+        });
+        CompletableFuture<String> second = coalescer.loadAsync("key", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        first.cancel(false);
+        assertEquals(1, coalescer.getInFlight());
+        request.complete("value");
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test
+    public void testAsyncLoaderThatThrowsIsCleared() {
+        CompletableFuture<String> future = coalescer.loadAsync("key", () -> {
+            throw new Error("failed");
+        });
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(0, coalescer.getInFlight());
+        assertFalse(coalescer.loadAsync("key", () -> CompletableFuture.completedFuture("value")).isCompletedExceptionally());
+    }
+
+    private static Throwable cause(Future<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        }
+        fail("The load did not fail");
+        return null;
+    }
+
+    private static void await(CountDownLatch latch) throws HaveIBeenPwndException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new HaveIBeenPwndException("Timed out");
+            }
+        } catch (InterruptedException ex) {
+            throw new HaveIBeenPwndException("Interrupted", ex);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > end) {
+                fail("Timed out waiting");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+}
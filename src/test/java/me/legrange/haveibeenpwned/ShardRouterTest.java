@@ -0,0 +1,124 @@
+package me.legrange.haveibeenpwned;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how the shard router splits prefixes over nodes, and the plan for
+ * changing the nodes.
+ *
+ * @author gideon
+ */
+public class ShardRouterTest {
+
+    private static final int PREFIXES = PwnedPasswordsCorpus.PREFIXES;
+    private static final List<String> NODES = Arrays.asList("http://node1:8080/", "http://node2:8080/", "http://node3:8080");
+
+    @Test
+    public void testEveryPrefixHasItsReplicas() {
+        ShardRouter router = new ShardRouter(NODES);
+        assertEquals(Arrays.asList("http://node1:8080/", "http://node2:8080/", "http://node3:8080/"), router.getNodes());
+        IntPredicate[] shards = new IntPredicate[NODES.size()];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = router.getShard(NODES.get(i));
+        }
+        int[] held = new int[NODES.size()];
+        for (int prefix = 0; prefix < PREFIXES; prefix += 7) {
+            List<String> nodes = router.getNodes(String.format("%05X", prefix));
+            assertEquals(2, nodes.size());
+            assertEquals(2, new HashSet<>(nodes).size());
+            for (int i = 0; i < shards.length; ++i) {
+                assertEquals(nodes.contains(router.getNodes().get(i)), shards[i].test(prefix));
+                if (shards[i].test(prefix)) {
+                    held[i]++;
+                }
+            }
+        }
+        // each node holds about two thirds of the prefixes
+        for (int count : held) {
+            double fraction = (double) count / ((PREFIXES + 6) / 7);
+            assertTrue("A node holds " + fraction, fraction > 0.5 && fraction < 0.8);
+        }
+    }
+
+    @Test
+    public void testRoutingIsStable() {
+        ShardRouter a = new ShardRouter(NODES);
+        ShardRouter b = new ShardRouter(NODES);
+        assertEquals(a.getNodes("5BAA6"), b.getNodes("5baa6"));
+    }
+
+    @Test
+    public void testReplicasAreLimitedToNodes() {
+        ShardRouter router = new ShardRouter(Arrays.asList("http://node1:8080/"), 3);
+        assertEquals(1, router.getReplicas());
+        assertEquals(Arrays.asList("http://node1:8080/"), router.getNodes("00000"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownNodeIsRejected() {
+        new ShardRouter(NODES).getShard("http://node4:8080/");
+    }
+
+    @Test
+    public void testAddingNodeOnlyMovesToIt() {
+        ShardRouter from = new ShardRouter(NODES);
+        ShardRouter to = from.withNodes(Arrays.asList("http://node4:8080/"));
+        RebalancePlan plan = from.planRebalance(to);
+        for (String node : from.getNodes()) {
+            assertEquals(0, plan.getGained(node).length);
+        }
+        assertEquals(0, plan.getDropped("http://node4:8080").length);
+        int gained = plan.getGained("http://node4:8080/").length;
+        assertEquals(plan.getMovedFraction(), (double) gained / PREFIXES, 1e-9);
+        // with two replicas the new node takes about half of the prefixes
+        assertTrue(plan.getMovedFraction() > 0.35 && plan.getMovedFraction() < 0.65);
+        IntPredicate shard = to.getShard("http://node4:8080/");
+        for (int prefix : plan.getGained("http://node4:8080/")) {
+            assertTrue(shard.test(prefix));
+        }
+    }
+
+    @Test
+    public void testTransitionShardIsUnionOfBoth() {
+        ShardRouter from = new ShardRouter(NODES);
+        ShardRouter to = new ShardRouter(Arrays.asList("http://node2:8080/", "http://node3:8080/", "http://node4:8080/"));
+        RebalancePlan plan = from.planRebalance(to);
+        for (String node : plan.getNodes()) {
+            IntPredicate transition = plan.getTransitionShard(node);
+            IntPredicate before = from.getNodes().contains(node) ? from.getShard(node) : prefix -> false;
+            IntPredicate after = to.getNodes().contains(node) ? to.getShard(node) : prefix -> false;
+            for (int prefix = 0; prefix < PREFIXES; prefix += 13) {
+                assertEquals(before.test(prefix) || after.test(prefix), transition.test(prefix));
+            }
+        }
+        // the removed node keeps its old shard until the clients have moved
+        IntPredicate removed = plan.getTransitionShard("http://node1:8080");
+        IntPredicate old = from.getShard("http://node1:8080/");
+        for (int prefix = 0; prefix < PREFIXES; prefix += 13) {
+            assertEquals(old.test(prefix), removed.test(prefix));
+        }
+        assertEquals(0, plan.getGained("http://node1:8080/").length);
+        assertEquals(0, plan.getDropped("http://node4:8080/").length);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPlanNodesAreUnmodifiable() {
+        ShardRouter from = new ShardRouter(NODES);
+        from.planRebalance(from).getNodes().add("http://node4:8080/");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPlanNodeIsRejected() {
+        ShardRouter from = new ShardRouter(NODES);
+        from.planRebalance(from).getTransitionShard("http://node4:8080/");
+    }
+
+}